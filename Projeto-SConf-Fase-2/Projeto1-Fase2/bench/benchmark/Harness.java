@@ -0,0 +1,171 @@
+package benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import server.LatencyHistogram;
+
+/**
+ * Classe responsavel pela execucao dos benchmarks. Cada operacao e executada
+ * durante um periodo de aquecimento, cujos resultados sao descartados, e depois
+ * durante um periodo de medicao, em que a latencia de cada execucao e registada
+ * num histograma. A configuracao e lida das propriedades de sistema
+ * (-Dbench.*).
+ *
+ * @author grupo 36.
+ *
+ */
+public class Harness {
+
+	/**
+	 * Operacao medida por um benchmark.
+	 */
+	public interface Operation {
+
+		/**
+		 * Prepara a proxima execucao. O tempo gasto nao e medido.
+		 */
+		default void prepare() throws Exception {
+		}
+
+		void run() throws Exception;
+	}
+
+	private final long warmupNanos;
+	private final long measureNanos;
+	private final int threads;
+	private final Pattern filter;
+	private final String output;
+
+	private Harness(int warmupSeconds, int measureSeconds, int threads, String filter, String output) {
+		this.warmupNanos = warmupSeconds * 1_000_000_000L;
+		this.measureNanos = measureSeconds * 1_000_000_000L;
+		this.threads = threads;
+		this.filter = filter == null ? null : Pattern.compile(filter);
+		this.output = output;
+	}
+
+	/**
+	 * Cria o harness a partir das propriedades de sistema: bench.warmup e
+	 * bench.time (segundos de aquecimento e de medicao de cada benchmark),
+	 * bench.threads (threads dos benchmarks concorrentes), bench.filter
+	 * (expressao regular com os benchmarks a executar) e bench.output (ficheiro
+	 * CSV onde os resultados sao acrescentados).
+	 *
+	 * @return O harness.
+	 */
+	public static Harness fromSystemProperties() {
+		return new Harness(Integer.getInteger("bench.warmup", 2), Integer.getInteger("bench.time", 5),
+				Integer.getInteger("bench.threads", Runtime.getRuntime().availableProcessors()),
+				System.getProperty("bench.filter"), System.getProperty("bench.output"));
+	}
+
+	/**
+	 * @param name O nome do benchmark.
+	 * @return true caso o benchmark deva ser executado.
+	 */
+	public boolean accepts(String name) {
+		return filter == null || filter.matcher(name).find();
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Executa um benchmark numa unica thread, caso este seja aceite pelo filtro.
+	 *
+	 * @param name      O nome do benchmark.
+	 * @param operation A operacao a medir.
+	 */
+	public void run(String name, Operation operation) throws Exception {
+		if (!accepts(name)) {
+			return;
+		}
+		loop(operation, warmupNanos, new LatencyHistogram());
+		LatencyHistogram histogram = new LatencyHistogram();
+		long start = System.nanoTime();
+		loop(operation, measureNanos, histogram);
+		report(name, histogram, System.nanoTime() - start);
+	}
+
+	/**
+	 * Executa um benchmark em bench.threads threads em simultaneo, caso este
+	 * seja aceite pelo filtro. O ritmo apresentado e o total de todas as
+	 * threads.
+	 *
+	 * @param name      O nome do benchmark.
+	 * @param operation A operacao a medir, partilhada pelas threads.
+	 */
+	public void runConcurrent(String name, Operation operation) throws Exception {
+		if (!accepts(name)) {
+			return;
+		}
+		concurrentLoop(operation, warmupNanos, new LatencyHistogram());
+		LatencyHistogram histogram = new LatencyHistogram();
+		long start = System.nanoTime();
+		concurrentLoop(operation, measureNanos, histogram);
+		report(name + " [" + threads + " threads]", histogram, System.nanoTime() - start);
+	}
+
+	private void concurrentLoop(Operation operation, long durationNanos, LatencyHistogram histogram)
+			throws Exception {
+		List<Thread> workers = new ArrayList<Thread>();
+		Exception[] failure = { null };
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread(() -> {
+				try {
+					loop(operation, durationNanos, histogram);
+				} catch (Exception e) {
+					synchronized (failure) {
+						failure[0] = e;
+					}
+				}
+			});
+			workers.add(worker);
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		synchronized (failure) {
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+		}
+	}
+
+	private static void loop(Operation operation, long durationNanos, LatencyHistogram histogram)
+			throws Exception {
+		long deadline = System.nanoTime() + durationNanos;
+		long now;
+		do {
+			operation.prepare();
+			long start = System.nanoTime();
+			operation.run();
+			now = System.nanoTime();
+			histogram.record(now - start);
+		} while (now < deadline);
+	}
+
+	private void report(String name, LatencyHistogram histogram, long elapsedNanos) throws IOException {
+		double opsPerSecond = histogram.getCount() / (elapsedNanos / 1e9);
+		System.out.println(String.format("%-48s %12.1f ops/s  media=%.1f p50=%d p90=%d p99=%d max=%d us (n=%d)",
+				name, opsPerSecond, histogram.getMeanMicros(), histogram.getPercentileMicros(50),
+				histogram.getPercentileMicros(90), histogram.getPercentileMicros(99), histogram.getMaxMicros(),
+				histogram.getCount()));
+		if (output != null) {
+			try (PrintWriter out = new PrintWriter(new FileWriter(output, true))) {
+				out.println(String.format("%s,%.1f,%.1f,%d,%d,%d,%d,%d", name, opsPerSecond,
+						histogram.getMeanMicros(), histogram.getPercentileMicros(50),
+						histogram.getPercentileMicros(90), histogram.getPercentileMicros(99),
+						histogram.getMaxMicros(), histogram.getCount()));
+			}
+		}
+	}
+
+}
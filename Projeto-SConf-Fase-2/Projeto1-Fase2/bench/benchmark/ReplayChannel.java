@@ -0,0 +1,51 @@
+package benchmark;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+
+import protocol.MessageChannel;
+
+/**
+ * Canal de mensagens em memoria usado pelos benchmarks do Skeleton: devolve as
+ * mensagens preparadas, pela ordem em que foram adicionadas, e descarta as
+ * mensagens enviadas.
+ *
+ * @author grupo 36.
+ *
+ */
+class ReplayChannel implements MessageChannel {
+
+	private final Deque<Object> messages = new ArrayDeque<Object>();
+
+	/**
+	 * Substitui as mensagens a devolver pelas indicadas.
+	 *
+	 * @param replay As mensagens a devolver.
+	 * @return Este canal.
+	 */
+	ReplayChannel replay(Object... replay) {
+		messages.clear();
+		Collections.addAll(messages, replay);
+		return this;
+	}
+
+	@Override
+	public Object readObject() throws IOException {
+		if (messages.isEmpty()) {
+			throw new EOFException("Nao ha mais mensagens no canal.");
+		}
+		return messages.poll();
+	}
+
+	@Override
+	public void writeObject(Object obj) {
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
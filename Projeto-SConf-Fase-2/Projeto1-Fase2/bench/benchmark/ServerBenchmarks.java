@@ -0,0 +1,372 @@
+package benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignedObject;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Random;
+
+import benchmark.Harness.Operation;
+import data.utils.FileSecurity;
+import domain.BankAccount;
+import domain.BankAccountCatalog;
+import domain.Block;
+import domain.BlockChain;
+import domain.GroupCatalog;
+import domain.PublicKeyCache;
+import domain.QRCodeGenerator;
+import domain.RecoverBlockChain;
+import domain.RequestID;
+import server.Skeleton;
+
+/**
+ * Benchmarks dos caminhos criticos do servidor: o Skeleton.invoke de cada
+ * comando, com canais em memoria, a atualizacao dos saldos, a cifra dos
+ * ficheiros, a escrita das transacoes nos blocos e a recuperacao da
+ * blockchain, estes ultimos com varios tamanhos de dados.
+ *
+ * Tal como o servidor, os benchmarks usam ficheiros na diretoria atual, pelo
+ * que devem ser executados numa diretoria vazia com uma copia de
+ * Projeto1-Fase2/security.
+ *
+ * @author grupo 36.
+ *
+ */
+public class ServerBenchmarks {
+
+	private static final String SECURITY_FOLDER = "Projeto1-Fase2/security/";
+	private static final String CIPHER_PASS = "cifra";
+	private static final String USER = "user1";
+	private static final String OTHER_USER = "user2";
+	private static final String[] DATA_FILES = { "users.cif", "ind_payment_request.cif",
+			"group_payment_request.cif", "history.cif" };
+	private static final int[] FILE_SIZES_KB = { 1, 64, 1024 };
+	private static final int[] TRANSACTION_SIZES = { 64, 1024, 16384 };
+	private static final int[] BLOCK_COUNTS = { 10, 100, 1000 };
+
+	public static void main(String[] args) throws Exception {
+		if (!new File(SECURITY_FOLDER).isDirectory()) {
+			System.err.println("Execute os benchmarks numa diretoria com uma copia de " + SECURITY_FOLDER);
+			System.exit(1);
+		}
+		boolean hasServerData = new File("block_1.blk").exists();
+		for (String dataFile : DATA_FILES) {
+			hasServerData |= new File(dataFile).exists();
+		}
+		if (hasServerData) {
+			System.err.println("A diretoria atual contem dados do servidor; execute os benchmarks numa diretoria vazia.");
+			System.exit(1);
+		}
+
+		Harness harness = Harness.fromSystemProperties();
+		try {
+			bankAccount(harness);
+			fileSecurity(harness);
+			block(harness);
+			recoverBlockChain(harness);
+			skeleton(harness);
+		} finally {
+			deleteServerFiles();
+		}
+	}
+
+	private static void bankAccount(Harness harness) throws Exception {
+		BankAccount account = new BankAccount();
+		harness.run("bankaccount.addAmount", () -> account.addAmount(1));
+		harness.run("bankaccount.removeAmount", new Operation() {
+			@Override
+			public void prepare() throws Exception {
+				refill(account);
+			}
+
+			@Override
+			public void run() throws Exception {
+				account.removeAmount(1);
+			}
+		});
+		harness.runConcurrent("bankaccount.addAmount", () -> account.addAmount(1));
+
+		// ida e volta, para que os saldos nao se esgotem
+		BankAccount other = new BankAccount();
+		Operation transfer = () -> {
+			BankAccount.transfer(account, other, 1);
+			BankAccount.transfer(other, account, 1);
+		};
+		harness.run("bankaccount.transfer", transfer);
+		harness.runConcurrent("bankaccount.transfer", transfer);
+	}
+
+	private static void fileSecurity(Harness harness) throws Exception {
+		File plain = new File("bench.plain");
+		File ciphered = new File("bench.cif");
+		for (int size : FILE_SIZES_KB) {
+			byte[] data = new byte[size * 1024];
+			new Random(size).nextBytes(data);
+
+			harness.run("filesecurity.cipherFile " + size + "KB", new Operation() {
+				@Override
+				public void prepare() throws Exception {
+					// cipherFile apaga o ficheiro em claro
+					Files.write(plain.toPath(), data);
+				}
+
+				@Override
+				public void run() throws Exception {
+					FileSecurity.cipherFile(ciphered, plain, CIPHER_PASS);
+				}
+			});
+
+			Files.write(plain.toPath(), data);
+			FileSecurity.cipherFile(ciphered, plain, CIPHER_PASS);
+			File[] deciphered = { null };
+			harness.run("filesecurity.decipherFile " + size + "KB", new Operation() {
+				@Override
+				public void prepare() throws Exception {
+					if (deciphered[0] != null) {
+						deciphered[0].delete();
+					}
+				}
+
+				@Override
+				public void run() throws Exception {
+					deciphered[0] = FileSecurity.decipherFile(ciphered, CIPHER_PASS);
+				}
+			});
+			if (deciphered[0] != null) {
+				deciphered[0].delete();
+			}
+		}
+		ciphered.delete();
+	}
+
+	private static void block(Harness harness) throws Exception {
+		PrivateKey serverKey = serverKey();
+		byte[] signature = new byte[256];
+		for (int size : TRANSACTION_SIZES) {
+			String name = "block.writeTransaction " + size + "B";
+			if (!harness.accepts(name)) {
+				continue;
+			}
+			byte[] transaction = new byte[size];
+			Block[] block = { null };
+			long[] index = { 0 };
+			// cada bloco e selado (assinado) a quinta transacao, como no servidor
+			harness.run(name, new Operation() {
+				@Override
+				public void prepare() {
+					if (block[0] == null || block[0].isClosed()) {
+						byte[] prevHash = block[0] == null ? new byte[32] : block[0].getHash();
+						block[0] = new Block(serverKey, ++index[0], prevHash);
+					}
+				}
+
+				@Override
+				public void run() throws Exception {
+					block[0].writeTransaction(transaction, signature);
+				}
+			});
+			block[0].close();
+			deleteBlocks();
+		}
+	}
+
+	private static void recoverBlockChain(Harness harness) throws Exception {
+		byte[] signature = new byte[256];
+		for (int blocks : BLOCK_COUNTS) {
+			String name = "recoverblockchain.recoverAllBlocks " + blocks + " blocos";
+			if (!harness.accepts(name)) {
+				continue;
+			}
+			BlockChain blockChain = new BlockChain(1, new byte[32], 0);
+			for (int i = 0; i < blocks * 5; i++) {
+				blockChain.writeTransaction("m " + USER + " " + OTHER_USER + " 1", signature);
+			}
+			blockChain.close();
+
+			harness.run(name, new Operation() {
+				@Override
+				public void prepare() {
+					RecoverBlockChain.reset();
+				}
+
+				@Override
+				public void run() {
+					RecoverBlockChain.recoverAllBlocks();
+				}
+			});
+			RecoverBlockChain.reset();
+			deleteBlocks();
+		}
+	}
+
+	private static void skeleton(Harness harness) throws Exception {
+		BankAccountCatalog bankCatalog = new BankAccountCatalog();
+		for (String userID : Arrays.asList(USER, OTHER_USER, "user3")) {
+			bankCatalog.add(userID, new BankAccount());
+		}
+		BankAccount account = bankCatalog.getBankAccount(USER);
+		GroupCatalog groupCatalog = new GroupCatalog();
+		BlockChain blockChain = new BlockChain(1, new byte[32], 0);
+		Skeleton<Object> skel = new Skeleton<Object>();
+		ReplayChannel channel = new ReplayChannel();
+
+		KeyStore keyStore = KeyStore.getInstance("JCEKS");
+		try (FileInputStream kfile = new FileInputStream(SECURITY_FOLDER + "user1.keystore")) {
+			keyStore.load(kfile, "password1".toCharArray());
+		}
+		PrivateKey userKey = (PrivateKey) keyStore.getKey(USER, "password1".toCharArray());
+		Certificate certificate = keyStore.getCertificate(USER);
+		// os usuarios dos benchmarks nao estao registados nos ficheiros do servidor
+		PublicKeyCache.getInstance().put(USER, certificate.getPublicKey());
+		SignedObject payment = sign("makepayment " + USER + " " + OTHER_USER + " 1", userKey);
+		SignedObject qrPayment = sign("c " + OTHER_USER + " 1.0 " + USER, userKey);
+
+		SkeletonCall call = (userID, message, replay) -> skel.invoke(userID, bankCatalog, groupCatalog, message,
+				channel.replay(replay), blockChain, CIPHER_PASS);
+		call.invoke(USER, "newgroup g0");
+		call.invoke(USER, "addu " + OTHER_USER + " g0");
+		call.invoke(USER, "addu user3 g0");
+
+		harness.run("skeleton.balance", () -> call.invoke(USER, "balance"));
+		harness.run("skeleton.makepayment", new Operation() {
+			@Override
+			public void prepare() throws Exception {
+				refill(account);
+			}
+
+			@Override
+			public void run() throws Exception {
+				call.invoke(USER, "makepayment " + OTHER_USER + " 1", payment, certificate);
+			}
+		});
+		harness.run("skeleton.requestpayment", () -> call.invoke(USER, "requestpayment " + OTHER_USER + " 1"));
+		harness.run("skeleton.viewrequests", () -> call.invoke(USER, "viewrequests"));
+		harness.run("skeleton.payrequest", new Operation() {
+			private String message;
+			private SignedObject signed;
+
+			@Override
+			public void prepare() throws Exception {
+				refill(account);
+				RequestID uniqueID = account.addIndPaymentRequest(USER, OTHER_USER, 1, CIPHER_PASS).getUniqueID();
+				message = "payrequest " + uniqueID;
+				signed = sign(message + " " + USER, userKey);
+			}
+
+			@Override
+			public void run() throws Exception {
+				call.invoke(USER, message, signed, certificate);
+			}
+		});
+		harness.run("skeleton.obtainQRcode", () -> call.invoke(USER, "obtainQRcode 1"));
+		harness.run("skeleton.confirmQRcode", new Operation() {
+			private String message;
+
+			@Override
+			public void prepare() throws Exception {
+				refill(account);
+				message = "confirmQRcode " + call.invoke(OTHER_USER, "obtainQRcode 1");
+			}
+
+			@Override
+			public void run() throws Exception {
+				call.invoke(USER, message, qrPayment, certificate);
+			}
+		});
+		harness.run("skeleton.newgroup", new Operation() {
+			private int groups = 0;
+
+			@Override
+			public void run() throws Exception {
+				call.invoke(USER, "newgroup n" + groups++);
+			}
+		});
+		harness.run("skeleton.addu", new Operation() {
+			private int groups = 0;
+			private String message;
+
+			@Override
+			public void prepare() throws Exception {
+				call.invoke(USER, "newgroup a" + groups);
+				message = "addu " + OTHER_USER + " a" + groups++;
+			}
+
+			@Override
+			public void run() throws Exception {
+				call.invoke(USER, message);
+			}
+		});
+		harness.run("skeleton.groups", () -> call.invoke(USER, "groups"));
+		harness.run("skeleton.dividepayment", () -> call.invoke(USER, "dividepayment g0 2"));
+		harness.run("skeleton.statuspayments", () -> call.invoke(USER, "statuspayments g0"));
+		harness.run("skeleton.history", () -> call.invoke(USER, "history g0"));
+		harness.run("skeleton.batch", new Operation() {
+			@Override
+			public void prepare() throws Exception {
+				refill(account);
+			}
+
+			@Override
+			public void run() throws Exception {
+				call.invoke(USER, "batch", Arrays.asList(certificate, "balance",
+						"makepayment " + OTHER_USER + " 1", payment, "groups"));
+			}
+		});
+		blockChain.close();
+	}
+
+	/**
+	 * Invocacao do Skeleton com as mensagens que o cliente enviaria apos o
+	 * comando.
+	 */
+	private interface SkeletonCall {
+		Object invoke(String userID, String message, Object... replay) throws Exception;
+	}
+
+	private static void refill(BankAccount account) throws Exception {
+		if (account.balance() < 10) {
+			account.addAmount(1_000_000);
+		}
+	}
+
+	private static SignedObject sign(String transaction, PrivateKey key) throws Exception {
+		return new SignedObject(transaction, key, Signature.getInstance("MD5withRSA"));
+	}
+
+	private static PrivateKey serverKey() throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("JCEKS");
+		try (FileInputStream kfile = new FileInputStream(SECURITY_FOLDER + "server.keystore")) {
+			keyStore.load(kfile, "123456".toCharArray());
+		}
+		return (PrivateKey) keyStore.getKey("server", "123456".toCharArray());
+	}
+
+	private static void deleteBlocks() {
+		File[] blocks = new File(".").listFiles((dir, name) -> name.matches("block_\\d+\\.blk"));
+		if (blocks != null) {
+			for (File block : blocks) {
+				block.delete();
+			}
+		}
+	}
+
+	private static void deleteServerFiles() {
+		deleteBlocks();
+		for (String dataFile : DATA_FILES) {
+			new File(dataFile).delete();
+		}
+		File[] qrCodes = new File(QRCodeGenerator.FILE_NAME).listFiles();
+		if (qrCodes != null) {
+			for (File qrCode : qrCodes) {
+				qrCode.delete();
+			}
+		}
+		new File(QRCodeGenerator.FILE_NAME).delete();
+	}
+
+}
@@ -0,0 +1,89 @@
+package client;
+
+import protocol.Protocol;
+
+/**
+ * Classe responsavel pela configuracao do cliente. Os valores sao lidos das
+ * propriedades de sistema (-Dtrokos.*) no arranque do Trokos, usando valores
+ * por omissao quando nao definidos.
+ *
+ * @author grupo 36.
+ *
+ */
+public class ClientConfig {
+
+	private int protocolVersion = Protocol.BINARY_VERSION;
+	private boolean pipelined = false;
+	private int tlsSessionCache = 20480;
+	private int tlsSessionTimeout = 86400;
+
+	/**
+	 * Cria uma configuracao a partir das propriedades de sistema.
+	 *
+	 * @return A configuracao do cliente.
+	 * @throws IllegalArgumentException caso alguma propriedade seja invalida.
+	 */
+	public static ClientConfig fromSystemProperties() {
+		ClientConfig config = new ClientConfig();
+		String protocol = System.getProperty("trokos.protocol", "binary").trim().toLowerCase();
+		switch (protocol) {
+		case "stream":
+			config.protocolVersion = Protocol.STREAM_VERSION;
+			break;
+		case "framed":
+			config.protocolVersion = Protocol.SERIALIZATION_VERSION;
+			break;
+		case "binary":
+			config.protocolVersion = Protocol.BINARY_VERSION;
+			break;
+		default:
+			throw new IllegalArgumentException("Protocolo desconhecido: " + protocol);
+		}
+		config.pipelined = Boolean.getBoolean("trokos.pipeline");
+		if (config.pipelined && config.protocolVersion == Protocol.STREAM_VERSION) {
+			throw new IllegalArgumentException("O modo pipelined requer o protocolo com tramas.");
+		}
+		config.tlsSessionCache = positive("trokos.tls.session.cache", config.tlsSessionCache);
+		config.tlsSessionTimeout = positive("trokos.tls.session.timeout", config.tlsSessionTimeout);
+		return config;
+	}
+
+	private static int positive(String property, int defaultValue) {
+		int value = Integer.getInteger(property, defaultValue);
+		if (value <= 0) {
+			throw new IllegalArgumentException("A propriedade " + property + " deve ser positiva.");
+		}
+		return value;
+	}
+
+	/**
+	 * @return A versao mais recente do protocolo que o cliente pede ao servidor,
+	 *         ou Protocol.STREAM_VERSION para o protocolo original.
+	 */
+	public int getProtocolVersion() {
+		return protocolVersion;
+	}
+
+	/**
+	 * @return true caso o cliente envie os comandos sem esperar pelas respostas
+	 *         anteriores (modo pipelined).
+	 */
+	public boolean isPipelined() {
+		return pipelined;
+	}
+
+	/**
+	 * @return O numero maximo de sessoes TLS guardadas para retoma.
+	 */
+	public int getTlsSessionCache() {
+		return tlsSessionCache;
+	}
+
+	/**
+	 * @return O tempo de vida, em segundos, das sessoes TLS guardadas.
+	 */
+	public int getTlsSessionTimeout() {
+		return tlsSessionTimeout;
+	}
+
+}
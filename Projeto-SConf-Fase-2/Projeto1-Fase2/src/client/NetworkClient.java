@@ -2,8 +2,6 @@ package client;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.security.InvalidKeyException;
 import java.security.Key;
@@ -17,15 +15,36 @@ import java.security.SignedObject;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 
 import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
+
+import protocol.IdempotencyKey;
+import protocol.MessageChannel;
+import protocol.MessageSender;
+import protocol.PipelinedStreamChannel;
+import protocol.Protocol;
+import protocol.Report;
 
 public class NetworkClient {
 
 	private static final String SECURITY_FOLDER = "Projeto1-Fase2/security/";
+	private static final String BATCH = "batch";
+
+	private ClientConfig config;
+
+	public NetworkClient(ClientConfig config) {
+		this.config = config;
+	}
 
 	/**
 	 * Metodo que conecta o cliente ao servidor. Caso a conexao seja bem sucedida,
@@ -44,134 +63,54 @@ public class NetworkClient {
 			String userID) throws ClassNotFoundException {
 		try {
 			System.setProperty("javax.net.ssl.trustStore", SECURITY_FOLDER + trustStore);
-			SocketFactory sf = SSLSocketFactory.getDefault();
+			SSLContext sslContext = SSLContext.getDefault();
+			SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+			sessionContext.setSessionCacheSize(config.getTlsSessionCache());
+			sessionContext.setSessionTimeout(config.getTlsSessionTimeout());
+			SocketFactory sf = sslContext.getSocketFactory();
 			SSLSocket sslClientSocket = (SSLSocket) sf.createSocket(ipHostName, port);
-			ObjectInputStream in = new ObjectInputStream(sslClientSocket.getInputStream());
-			ObjectOutputStream out = new ObjectOutputStream(sslClientSocket.getOutputStream());
+			MessageChannel channel = Protocol.connect(sslClientSocket.getInputStream(),
+					sslClientSocket.getOutputStream(), config.getProtocolVersion(), config.isPipelined());
 
-			if (authentication(sslClientSocket, out, in, keyStore, keyStorePass, userID)) {
+			if (authentication(sslClientSocket, channel, keyStore, keyStorePass, userID)) {
 				System.out.println("Autenticado");
-				mainLoop(sslClientSocket, out, in, keyStore, keyStorePass, userID);
+				if (channel instanceof PipelinedStreamChannel) {
+					pipelinedLoop((PipelinedStreamChannel) channel, keyStore, keyStorePass, userID);
+				} else {
+					mainLoop(sslClientSocket, channel, keyStore, keyStorePass, userID);
+				}
 			} else {
 				System.err.println("Não autenticado");
 				System.exit(0);
 			}
 
-		} catch (IOException e) {
+		} catch (IOException | NoSuchAlgorithmException e) {
 			System.err.println(e.getMessage());
 			System.exit(1);
 		}
 	}
 
-	public void mainLoop(Socket clientSocket, ObjectOutputStream out, ObjectInputStream in, String keyStore,
-			String keyStorePass, String userID) throws ClassNotFoundException, IOException {
+	public void mainLoop(Socket clientSocket, MessageChannel channel, String keyStore, String keyStorePass,
+			String userID) throws ClassNotFoundException, IOException {
 		Scanner sc = new Scanner(System.in);
-		String[] SplittedLine = null;
 		String line = null;
-		String strResp = null;
 		Object resp = null;
-		String transaction = null;
 
 		System.out.print("Comando: ");
 		while (sc.hasNextLine()) {
-			line = sc.nextLine();
-			SplittedLine = line.split(" ", 3);
-
-			networkSend(clientSocket, out, line);
+			line = readCommand(sc);
 
 			try {
-				switch (SplittedLine[0]) {
-				case "balance":
-				case "b":
-					strResp = (String) in.readObject();
-					System.out.println("Valor atual do saldo da sua conta: " + strResp + ".");
-					break;
-				case "makepayment":
-				case "m":
-					transaction = SplittedLine[0] + " " + userID + " " + SplittedLine[1] + " " + SplittedLine[2];
-					SendSignedObject(out, transaction, keyStore, keyStorePass, userID);
-					resp = in.readObject();
-					outputMessage(resp, "Pagamento efetuado com sucesso.");
-					break;
-				case "requestpayment":
-				case "r":
-					resp = in.readObject();
-					outputMessage(resp, "Envio do pedido de pagamento efetuado com sucesso.");
-					break;
-				case "viewrequests":
-				case "v":
-					resp = (String) in.readObject();
-					System.out.print("Pedidos de pagamento pendentes: ");
-					if (((String) resp).length() == 0) {
-						System.out.println("Nao ha pagamentos pendentes.");
-						break;
-					}
-					System.out.println();
-					String[] splittedResp = ((String) resp).split(",");
-					String[] splittedPaymentInf = null;
-					for (String paymentInf : splittedResp) {
-						splittedPaymentInf = (paymentInf).split(" ", 3);
-						System.out.println("[ID do pedido]: " + splittedPaymentInf[0]);
-						System.out.println("Valor: " + splittedPaymentInf[1]);
-						System.out.println("Usuario que fez o pedido: " + splittedPaymentInf[2]);
-					}
-					break;
-				case "payrequest":
-				case "p":
-					SendSignedObject(out, (line + " " + userID), keyStore, keyStorePass, userID);
-					resp = in.readObject();
-					outputMessage(resp, "Pagamento efetuado com sucesso.");
-					break;
-				case "obtainQRcode":
-				case "o":
-					resp = in.readObject();
-					System.out.println("Codigo QR Code: " + (String) resp);
-					break;
-				case "confirmQRcode":
-				case "c":
-					String QRinfo = (String) in.readObject();
-					
-					String[] splittedLine = QRinfo.split("_");
-					transaction = "c " + splittedLine[0] + " " + splittedLine[1] + " " + userID;
-					
-					SendSignedObject(out, transaction, keyStore, keyStorePass, userID);
-					resp = in.readObject();
-					outputMessage(resp, "Pagamento QR code efetuado com sucesso.");
-					break;
-				case "newgroup":
-				case "n":
-					resp = in.readObject();
-					outputMessage(resp, "Grupo criado com sucesso.");
-					break;
-				case "addu":
-				case "a":
-					resp = in.readObject();
-					outputMessage(resp, "Utilizador adicionado com sucesso.");
-					break;
-				case "groups":
-				case "g":
-					resp = (String) in.readObject();
-					System.out.println((String) resp);
-					break;
-				case "dividepayment":
-				case "d":
-					resp = in.readObject();
-					outputMessage(resp, "Pagamento dividido com sucesso.");
-					break;
-				case "statuspayments":
-				case "s":
-					resp = in.readObject();
-					System.out.println((String) resp);
-					break;
-				case "history":
-				case "h":
-					resp = in.readObject();
-					System.out.println((String) resp);
-					break;
-				default:
-					System.err.println((String) in.readObject());
-					break;
+				sendCommand(channel, line, keyStore, keyStorePass, userID);
+				resp = channel.readObject();
+				if (isConfirmQRcode(commandOf(line))
+						&& confirmQRcode(channel, line, resp, keyStore, keyStorePass, userID)) {
+					resp = channel.readObject();
+				}
+				while (resp instanceof Report && !((Report) resp).isLast()) {
+					resp = ((Report) resp).merge((Report) channel.readObject());
 				}
+				printResponse(line, resp);
 			} catch (NullPointerException | ClassCastException e) {
 				System.err.println("Ocorreu um erro inesperado.");
 			}
@@ -180,23 +119,340 @@ public class NetworkClient {
 		sc.close();
 	}
 
-	private void networkSend(Socket socket, ObjectOutputStream out, Object message) {
+	/**
+	 * Metodo que envia os comandos no modo pipelined: cada comando e enviado com
+	 * um novo id de correlacao sem esperar pelas respostas anteriores, que sao
+	 * lidas e apresentadas por outra thread a medida que chegam. Termina quando
+	 * todos os comandos enviados tiverem resposta.
+	 * 
+	 * @param channel      O canal pipelined.
+	 * @param keyStore     A keystore
+	 * @param keyStorePass A palavra passe da keystore
+	 * @param userID       o identificador do usuario
+	 */
+	public void pipelinedLoop(PipelinedStreamChannel channel, String keyStore, String keyStorePass, String userID)
+			throws IOException {
+		Map<Integer, String> pending = new HashMap<Integer, String>();
+		Thread receiver = new Thread(() -> receive(channel, pending, keyStore, keyStorePass, userID));
+		receiver.setDaemon(true);
+		receiver.start();
+
+		Scanner sc = new Scanner(System.in);
+		int nextId = PipelinedStreamChannel.CONTROL_ID + 1;
+		while (sc.hasNextLine()) {
+			String line = readCommand(sc);
+			int id = nextId++;
+			synchronized (pending) {
+				pending.put(id, line);
+			}
+			sendCommand(channel.sender(id), line, keyStore, keyStorePass, userID);
+		}
+		sc.close();
+
+		synchronized (pending) {
+			while (!pending.isEmpty() && receiver.isAlive()) {
+				try {
+					pending.wait(1000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		channel.close();
+	}
+
+	private void receive(PipelinedStreamChannel channel, Map<Integer, String> pending, String keyStore,
+			String keyStorePass, String userID) {
+		Set<Integer> confirmed = new HashSet<Integer>();
+		Map<Integer, Report> partial = new HashMap<Integer, Report>();
+		try {
+			while (true) {
+				PipelinedStreamChannel.Frame frame = channel.read();
+				int id = frame.getId();
+				String line = null;
+				synchronized (pending) {
+					line = pending.get(id);
+				}
+				if (line == null) {
+					continue;
+				}
+
+				String command = commandOf(line);
+				Object resp = frame.getMessage();
+				if (isConfirmQRcode(command) && confirmed.add(id)
+						&& confirmQRcode(channel.sender(id), line, resp, keyStore, keyStorePass, userID)) {
+					continue;
+				}
+				if (resp instanceof Report) {
+					Report previous = partial.remove(id);
+					Report report = previous == null ? (Report) resp : previous.merge((Report) resp);
+					if (!report.isLast()) {
+						partial.put(id, report);
+						continue;
+					}
+					resp = report;
+				}
+
+				synchronized (pending) {
+					System.out.println("Pedido " + id + " (" + line.split("\n", 2)[0] + "):");
+					try {
+						printResponse(line, resp);
+					} catch (NullPointerException | ClassCastException e) {
+						System.err.println("Ocorreu um erro inesperado.");
+					}
+					confirmed.remove(id);
+					pending.remove(id);
+					pending.notifyAll();
+				}
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			synchronized (pending) {
+				if (!pending.isEmpty()) {
+					System.err.println(e.getMessage());
+				}
+				pending.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Metodo que le o proximo comando. O comando batch e seguido dos seus
+	 * subcomandos, um por linha, terminados por uma linha vazia; nesse caso o
+	 * comando devolvido contem o batch e os subcomandos separados por '\n'.
+	 * 
+	 * @param sc O scanner do input.
+	 * @return O comando lido.
+	 */
+	private String readCommand(Scanner sc) {
+		String line = sc.nextLine();
+		if (!line.trim().equals(BATCH)) {
+			return line;
+		}
+		StringBuilder batch = new StringBuilder(BATCH);
+		while (sc.hasNextLine()) {
+			String subCommand = sc.nextLine();
+			if (subCommand.trim().isEmpty()) {
+				break;
+			}
+			batch.append('\n').append(subCommand);
+		}
+		return batch.toString();
+	}
+
+	private static String commandOf(String line) {
+		return IdempotencyKey.strip(line).split("[ \n]", 2)[0];
+	}
+
+	/**
+	 * Metodo que envia um comando, seguido da transacao assinada no caso dos
+	 * comandos makepayment e payrequest, que o servidor le logo apos o comando.
+	 */
+	private void sendCommand(MessageSender channel, String line, String keyStore, String keyStorePass,
+			String userID) {
+		if (commandOf(line).equals(BATCH)) {
+			networkSend(channel, BATCH);
+			networkSend(channel, buildBatch(line, keyStore, keyStorePass, userID));
+			return;
+		}
+
+		networkSend(channel, line);
+		String transaction = transactionOf(line, userID);
+		if (transaction != null) {
+			SendSignedObject(channel, transaction, keyStore, keyStorePass, userID);
+		}
+	}
+
+	/**
+	 * Metodo que constroi a mensagem com os subcomandos de um batch: o lugar do
+	 * certificado do usuario, que e omitido (null), seguido de cada subcomando e
+	 * da respetiva transacao assinada, caso exista. A keystore e lida uma unica
+	 * vez.
+	 */
+	private List<Object> buildBatch(String line, String keyStore, String keyStorePass, String userID) {
+		List<Object> batch = new ArrayList<Object>();
+		batch.add(null);
+		try {
+			KeyStore ks = null;
+			PrivateKey pk = null;
+			String[] subCommands = line.split("\n");
+			for (int i = 1; i < subCommands.length; i++) {
+				batch.add(subCommands[i]);
+				String transaction = transactionOf(subCommands[i], userID);
+				if (transaction != null) {
+					if (ks == null) {
+						ks = KeyStore.getInstance("JCEKS");
+						FileInputStream kfile = new FileInputStream(SECURITY_FOLDER + keyStore);
+						ks.load(kfile, keyStorePass.toCharArray());
+						pk = (PrivateKey) ks.getKey(userID, keyStorePass.toCharArray());
+					}
+					batch.add(new SignedObject(transaction, pk, Signature.getInstance("MD5withRSA")));
+				}
+			}
+		} catch (Exception e) {
+			System.err.println("Ocorreu um erro inesperado.");
+		}
+		return batch;
+	}
+
+	/**
+	 * @return A transacao a assinar pelos comandos makepayment e payrequest, com
+	 *         a chave de idempotencia do comando, caso exista, ou null para os
+	 *         restantes comandos.
+	 */
+	private static String transactionOf(String line, String userID) {
+		String key = IdempotencyKey.of(line);
+		String command = IdempotencyKey.strip(line);
+		String[] splittedLine = command.split(" ", 3);
+		switch (splittedLine[0]) {
+		case "makepayment":
+		case "m":
+			if (splittedLine.length == 3) {
+				return IdempotencyKey.tag(
+						splittedLine[0] + " " + userID + " " + splittedLine[1] + " " + splittedLine[2], key);
+			}
+			return null;
+		case "payrequest":
+		case "p":
+			if (splittedLine.length == 2) {
+				return IdempotencyKey.tag(command + " " + userID, key);
+			}
+			return null;
+		default:
+			return null;
+		}
+	}
+
+	private static boolean isConfirmQRcode(String command) {
+		return command.equals("confirmQRcode") || command.equals("c");
+	}
+
+	/**
+	 * Metodo que responde a informacao do QR code enviada pelo servidor no
+	 * comando confirmQRcode, enviando a transacao assinada.
+	 * 
+	 * @return true caso a transacao tenha sido enviada, false caso o servidor
+	 *         tenha respondido logo com o resultado do comando.
+	 */
+	private boolean confirmQRcode(MessageSender channel, String line, Object resp, String keyStore,
+			String keyStorePass, String userID) {
+		if (!(resp instanceof String) || !((String) resp).contains("_")) {
+			return false;
+		}
+		String[] splittedLine = ((String) resp).split("_");
+		String transaction = IdempotencyKey.tag("c " + splittedLine[0] + " " + splittedLine[1] + " " + userID,
+				IdempotencyKey.of(line));
+
+		SendSignedObject(channel, transaction, keyStore, keyStorePass, userID);
+		return true;
+	}
+
+	/**
+	 * Metodo que apresenta a resposta do servidor a um comando.
+	 * 
+	 * @param line O comando enviado.
+	 * @param resp A resposta do servidor.
+	 */
+	private void printResponse(String line, Object resp) {
+		switch (commandOf(line)) {
+		case "balance":
+		case "b":
+			System.out.println("Valor atual do saldo da sua conta: " + (String) resp + ".");
+			break;
+		case "makepayment":
+		case "m":
+			outputMessage(resp, "Pagamento efetuado com sucesso.");
+			break;
+		case "requestpayment":
+		case "r":
+			outputMessage(resp, "Envio do pedido de pagamento efetuado com sucesso.");
+			break;
+		case "viewrequests":
+		case "v":
+			System.out.print("Pedidos de pagamento pendentes: ");
+			if (((String) resp).length() == 0) {
+				System.out.println("Nao ha pagamentos pendentes.");
+				break;
+			}
+			System.out.println();
+			String[] splittedResp = ((String) resp).split(",");
+			String[] splittedPaymentInf = null;
+			for (String paymentInf : splittedResp) {
+				splittedPaymentInf = (paymentInf).split(" ", 3);
+				System.out.println("[ID do pedido]: " + splittedPaymentInf[0]);
+				System.out.println("Valor: " + splittedPaymentInf[1]);
+				System.out.println("Usuario que fez o pedido: " + splittedPaymentInf[2]);
+			}
+			break;
+		case "payrequest":
+		case "p":
+			outputMessage(resp, "Pagamento efetuado com sucesso.");
+			break;
+		case "obtainQRcode":
+		case "o":
+			System.out.println("Codigo QR Code: " + (String) resp);
+			break;
+		case "confirmQRcode":
+		case "c":
+			outputMessage(resp, "Pagamento QR code efetuado com sucesso.");
+			break;
+		case "newgroup":
+		case "n":
+			outputMessage(resp, "Grupo criado com sucesso.");
+			break;
+		case "addu":
+		case "a":
+			outputMessage(resp, "Utilizador adicionado com sucesso.");
+			break;
+		case "dividepayment":
+		case "d":
+			outputMessage(resp, "Pagamento dividido com sucesso.");
+			break;
+		case "groups":
+		case "g":
+		case "statuspayments":
+		case "s":
+		case "history":
+		case "h":
+			System.out.println(resp instanceof Report ? ((Report) resp).format() : (String) resp);
+			break;
+		case "stats":
+			System.out.println((String) resp);
+			break;
+		case BATCH:
+			if (!(resp instanceof List)) {
+				outputMessage(resp, "");
+				break;
+			}
+			String[] subCommands = line.split("\n");
+			List<?> responses = (List<?>) resp;
+			for (int i = 0; i < responses.size() && i + 1 < subCommands.length; i++) {
+				System.out.println("Comando " + (i + 1) + " (" + subCommands[i + 1] + "):");
+				printResponse(subCommands[i + 1], responses.get(i));
+			}
+			break;
+		default:
+			System.err.println((String) resp);
+			break;
+		}
+	}
+
+	private void networkSend(MessageSender channel, Object message) {
 		try {
-			out.writeObject(message);
-			out.flush();
+			channel.writeObject(message);
 		} catch (IOException e) {
 			System.err.println(e.getMessage());
 			System.exit(1);
 		}
 	}
 
-	private boolean authentication(SSLSocket sslClientSocket, ObjectOutputStream out, ObjectInputStream in,
-			String keyStore, String keyStorePass, String userID) throws IOException, ClassNotFoundException {
+	private boolean authentication(SSLSocket sslClientSocket, MessageChannel channel, String keyStore,
+			String keyStorePass, String userID) throws IOException, ClassNotFoundException {
 
-		networkSend(sslClientSocket, out, userID);
+		networkSend(channel, userID);
 
-		long nonce = ((Long) in.readObject()).longValue();
-		int flag = ((Integer) in.readObject()).intValue();
+		long nonce = ((Long) channel.readObject()).longValue();
+		int flag = ((Integer) channel.readObject()).intValue();
 
 		KeyStore kstore = null;
 		Key privateKey = null;
@@ -215,14 +471,14 @@ public class NetworkClient {
 
 		if (flag == 0) {
 			byte[] signedNonce = getSignedNonce(privateKey, nonce);
-			out.writeObject(nonce);
-			out.writeObject(signedNonce);
-			out.writeObject(certificate);
+			channel.writeObject(nonce);
+			channel.writeObject(signedNonce);
+			channel.writeObject(certificate);
 			System.out.println("Registando novo usuário...");
 		} else if (flag == 1) {
-			out.writeObject(getSignedNonce(privateKey, nonce));
+			channel.writeObject(getSignedNonce(privateKey, nonce));
 		}
-		return (Boolean) in.readObject();
+		return (Boolean) channel.readObject();
 	}
 
 	private byte[] getSignedNonce(Key privateKey, long nonce) {
@@ -239,7 +495,7 @@ public class NetworkClient {
 		return signedNonce;
 	}
 
-	private void outputMessage(Object resp, String message) throws ClassNotFoundException, IOException {
+	private void outputMessage(Object resp, String message) {
 		boolean boolResp = false;
 
 		if (resp.getClass() == Boolean.class) {
@@ -254,7 +510,7 @@ public class NetworkClient {
 		}
 	}
 
-	private void SendSignedObject(ObjectOutputStream out, String line, String keyStore, String keyStorePass,
+	private void SendSignedObject(MessageSender channel, String line, String keyStore, String keyStorePass,
 			String userID) {
 		try {
 
@@ -262,12 +518,13 @@ public class NetworkClient {
 			FileInputStream kfile = new FileInputStream(SECURITY_FOLDER + keyStore);
 			ks.load(kfile, keyStorePass.toCharArray());
 			PrivateKey pk = (PrivateKey) ks.getKey(userID, keyStorePass.toCharArray());
-			Certificate cert = ks.getCertificate(userID);
 
 			SignedObject signedObject = new SignedObject(line, pk, Signature.getInstance("MD5withRSA"));
 
-			out.writeObject(signedObject);
-			out.writeObject(cert);
+			// o servidor verifica a assinatura com a chave publica registada, pelo
+			// que o certificado e omitido
+			channel.writeObject(signedObject);
+			channel.writeObject(null);
 		} catch (Exception e) {
 			System.err.println("Ocorreu um erro inesperado.");
 		}
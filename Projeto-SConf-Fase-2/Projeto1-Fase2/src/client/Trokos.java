@@ -15,7 +15,15 @@ public class Trokos {
 			System.exit(-1);
 		}
 
-		NetworkClient network = new NetworkClient();
+		ClientConfig config = null;
+		try {
+			config = ClientConfig.fromSystemProperties();
+		} catch (IllegalArgumentException e) {
+			System.err.println("Configuracao invalida: " + e.getMessage());
+			System.exit(-1);
+		}
+
+		NetworkClient network = new NetworkClient(config);
 
 		try {
 			network.connect(ipHostName, port, trustStore, keyStore, keyStorePass, userID);
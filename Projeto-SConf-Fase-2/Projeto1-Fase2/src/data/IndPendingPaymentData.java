@@ -8,8 +8,12 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import data.utils.FileSecurity;
+import domain.RequestID;
+import exceptions.InvalidIdentifierException;
 
 /**
  * Classe responsavel por manipular os dados do ficheiro
@@ -24,6 +28,8 @@ public class IndPendingPaymentData {
 
 	private static final String IND_PAYMENT_REQUEST_FILE_PATHNAME = "ind_payment_request.cif";
 	private static IndPendingPaymentData indPaymentRequestData_instance = null;
+	// identificadores dos pedidos do ficheiro, lidos do ficheiro uma so vez
+	private volatile Set<RequestID> uniqueIDs = null;
 	//private static File file = null;
 
 	/*protected IndPendingPaymentData() {
@@ -81,7 +87,39 @@ public class IndPendingPaymentData {
 		return null;
 	}
 
-	public synchronized void addLine(String cipherPass, String uniqueID, double amount, String userWhoRequestedPayment) {
+	/**
+	 * Verifica se existe no ficheiro um pedido com o identificador dado, sem
+	 * ler o ficheiro: os identificadores sao lidos na primeira consulta e
+	 * mantidos em memoria.
+	 * 
+	 * @param cipherPass A password da cifra do ficheiro.
+	 * @param uniqueID   O identificador do pedido.
+	 * @return true caso o pedido exista, false caso contrario.
+	 */
+	public boolean contains(String cipherPass, RequestID uniqueID) {
+		Set<RequestID> ids = uniqueIDs;
+		if (ids == null) {
+			ids = loadUniqueIDs(cipherPass);
+		}
+		return ids.contains(uniqueID);
+	}
+
+	private synchronized Set<RequestID> loadUniqueIDs(String cipherPass) {
+		if (uniqueIDs == null) {
+			Set<RequestID> ids = ConcurrentHashMap.<RequestID>newKeySet();
+			for (String line : getAllIndividualPaymentIDs(cipherPass)) {
+				try {
+					ids.add(RequestID.parse(line.split(":", 2)[0]));
+				} catch (InvalidIdentifierException e) {
+					System.err.println(e.getMessage());
+				}
+			}
+			uniqueIDs = ids;
+		}
+		return uniqueIDs;
+	}
+
+	public synchronized void addLine(String cipherPass, RequestID uniqueID, double amount, String userWhoRequestedPayment) {
 		
 		File file = createIndPaymentRequestFile(cipherPass);
 		File temp = FileSecurity.decipherFile(file, cipherPass);
@@ -96,6 +134,9 @@ public class IndPendingPaymentData {
 		}
 		
 		FileSecurity.cipherFile(file, temp, cipherPass);
+		if (uniqueIDs != null) {
+			uniqueIDs.add(uniqueID);
+		}
 	}
 
 	private synchronized static File createIndPaymentRequestFile(String cipherPass) {
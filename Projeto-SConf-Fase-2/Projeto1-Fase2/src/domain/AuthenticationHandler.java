@@ -1,7 +1,5 @@
 package domain;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.security.InvalidKeyException;
@@ -11,11 +9,8 @@ import java.security.SecureRandom;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.security.cert.Certificate;
-import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 
 import data.UsersData;
-import data.UsersData.User;
 
 /**
  * Classe responsavel pela autenticacao do cliente.
@@ -57,6 +52,7 @@ public class AuthenticationHandler {
 
 		catalog.add(userID, new BankAccount());
 		UsersData.addLine(cipherPass, userID, certificatePath);
+		PublicKeyCache.getInstance().invalidate(userID);
 	}
 
 	public boolean verifyNonce(long nonce, byte[] signedNonce, Certificate certificate) {
@@ -77,20 +73,18 @@ public class AuthenticationHandler {
 	}
 
 	public boolean verifyNonce(String cipherPass, String userID, byte[] signedNonce) {
-		User user = UsersData.getLine(cipherPass, userID);
+		PublicKey publicKey = PublicKeyCache.getInstance().get(cipherPass, userID);
+		if (publicKey == null) {
+			return false;
+		}
 		try {
-			FileInputStream fis = new FileInputStream(user.getCertificatePath());
-			CertificateFactory cf = CertificateFactory.getInstance("X509");
-			Certificate certificate = cf.generateCertificate(fis);
-			PublicKey publicKey = certificate.getPublicKey();
 			Signature signature = Signature.getInstance("MD5withRSA");
 			signature.initVerify(publicKey);
 			signature.update(Long.valueOf(nonce).byteValue());
 			if (signature.verify(signedNonce)) {
 				return true;
 			}
-		} catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException | FileNotFoundException
-				| CertificateException e) {
+		} catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
 			e.printStackTrace();
 		}
 		return false;
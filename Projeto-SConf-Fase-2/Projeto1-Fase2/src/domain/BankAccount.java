@@ -1,9 +1,16 @@
 package domain;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 import data.GroupPendingPaymentData;
 import data.HistoryData;
@@ -14,7 +21,8 @@ import exceptions.InvalidOperation;
 
 /**
  * Classe responsavel pela representacao da conta de um determinado cliente,
- * possuindo diversos metodos responsaveis pela gestao do saldo da conta.
+ * possuindo diversos metodos responsaveis pela gestao do saldo da conta. Os
+ * valores sao inteiros, em centimos (ver Money).
  * 
  * @author grupo 36.
  *
@@ -25,74 +33,274 @@ public class BankAccount {
 	private static final GroupPendingPaymentData GROUP_PENDING_PAYMENT_SINGLETON = GroupPendingPaymentData
 			.getInstance();
 	private static final HistoryData HISTORY_SINGLETON = HistoryData.getInstance();
-	private List<IndPaymentRequestInformation> indPendingPayment = new ArrayList<IndPaymentRequestInformation>();
 	private HashMap<String, List<GroupPaymentReqInformation>> groupsPaymentReqInfo = new HashMap<String, List<GroupPaymentReqInformation>>();
-	private List<String> paidPendingPayments = new ArrayList<String>();
-	private double currentAmount = 100.0;
+	private Set<RequestID> paidPendingPayments = ConcurrentHashMap.<RequestID>newKeySet();
+	// substituido por compare-and-set: o saldo, as transferencias pendentes e
+	// os pedidos sao alterados sem locks, repetindo a alteracao caso o estado
+	// tenha sido substituido entretanto
+	private final AtomicReference<Snapshot> state = new AtomicReference<Snapshot>(
+			new Snapshot(Money.of(100), Collections.<RequestID, IndPaymentRequestInformation>emptyMap(),
+					Collections.<PendingTransfer>emptyList()));
+
+	/**
+	 * Obtem o estado atual da conta: o saldo e os pedidos de pagamento
+	 * pendentes, lidos de forma consistente. Nao obtem nenhum lock, pelo que
+	 * nunca espera por uma transferencia em curso. Uma transferencia conta para
+	 * o saldo e para os pedidos pagos das duas contas a partir do momento em que
+	 * e confirmada, e nunca antes, pelo que nunca e vista a meio.
+	 * 
+	 * @return O estado atual da conta.
+	 */
+	public Snapshot snapshot() {
+		return state.get().resolve(this);
+	}
 
+	/**
+	 * @return O saldo da conta, com casas decimais.
+	 */
 	public double balance() {
-		return currentAmount;
+		return Money.toDouble(snapshot().balance);
 	}
 
-	public synchronized void addAmount(double amount) throws InvalidOperation {
-		if (amount >= 0) {
-			currentAmount += amount;
-		} else {
+	/**
+	 * @param amount O valor a depositar, em centimos.
+	 */
+	public void addAmount(long amount) throws InvalidOperation {
+		if (amount < 0) {
 			throw new InvalidOperation();
 		}
+		for (;;) {
+			Snapshot current = state.get();
+			if (state.compareAndSet(current, current.withBalance(Math.addExact(current.balance, amount)))) {
+				return;
+			}
+		}
 	}
 
-	public synchronized void removeAmount(double amount) throws InvalidOperation, InsufficientBalanceException {
-		if (amount >= 0) {
-			if (currentAmount - amount >= 0) {
-				currentAmount -= amount;
-			} else {
+	/**
+	 * @param amount O valor a levantar, em centimos.
+	 */
+	public void removeAmount(long amount) throws InvalidOperation, InsufficientBalanceException {
+		if (amount < 0) {
+			throw new InvalidOperation();
+		}
+		for (;;) {
+			Snapshot current = state.get();
+			if (current.available(this) < amount) {
 				throw new InsufficientBalanceException("Valor na conta insuficiente para proceder com operacao.");
 			}
-		} else {
-			throw new InvalidOperation();
+			if (state.compareAndSet(current, current.withBalance(current.balance - amount))) {
+				return;
+			}
 		}
 	}
 	
-	public synchronized void recoverAddIndPaymentRequest(Double amount, String userID, String userWhoRequestedPayment, String uniqueID) {
-		IndPaymentRequestInformation inf = new IndPaymentRequestInformation(amount, userID, userWhoRequestedPayment, uniqueID);
-		indPendingPayment.add(inf);
+	/**
+	 * Transfere um valor entre duas contas. E a unica forma de mover dinheiro
+	 * entre contas. O valor e primeiro reservado na conta de origem e depois
+	 * passado para a conta de destino, sem locks: cada conta e alterada por
+	 * compare-and-set, tal como nos levantamentos e depositos. A transferencia
+	 * passa a contar para o saldo das duas contas num unico passo (ver
+	 * snapshot()): quem le o saldo das contas ve-o antes ou depois da
+	 * transferencia, nunca com o levantamento feito e o deposito por fazer. Duas
+	 * contas lidas uma apos a outra podem, no entanto, ser lidas de lados
+	 * diferentes de uma transferencia.
+	 *
+	 * @param from   A conta de onde sai o valor.
+	 * @param to     A conta que recebe o valor.
+	 * @param amount O valor, em centimos.
+	 * @throws InvalidOperation             caso o valor seja negativo.
+	 * @throws InsufficientBalanceException caso a conta de origem nao tenha saldo
+	 *                                      suficiente.
+	 */
+	public static void transfer(BankAccount from, BankAccount to, long amount)
+			throws InvalidOperation, InsufficientBalanceException {
+		transfer(from, to, amount, () -> true);
 	}
 
-	public synchronized IndPaymentRequestInformation addIndPaymentRequest(String userID, String userWhoRequestedPayment,
-			double amount, String cipherPass) throws InvalidOperation {
-		IndPaymentRequestInformation inf = null;
-		if (amount >= 0) {
-			inf = new IndPaymentRequestInformation(amount, userID, userWhoRequestedPayment);
-			indPendingPayment.add(inf);
-			IND_PENDING_PAYMENT_SINGLETON.addLine(cipherPass ,inf.getUniqueID(), amount, userWhoRequestedPayment);
-		} else {
+	/**
+	 * Transfere um valor entre duas contas, como transfer(from, to, amount), e
+	 * so o passa para a conta de destino depois de a transferencia ser
+	 * confirmada. Enquanto a confirmacao nao termina, o valor esta reservado,
+	 * pelo que nao pode ser gasto noutra operacao, e as leituras das duas
+	 * contas continuam a ver os saldos anteriores. Caso a confirmacao falhe, a
+	 * reserva e libertada e a transferencia nunca chega a ser vista.
+	 *
+	 * @param commit Chamado depois de o valor ter sido reservado; devolve false
+	 *               caso a transferencia deva ser desfeita (por exemplo, por nao
+	 *               ter sido guardada na blockchain).
+	 * @return true caso a transferencia tenha sido confirmada, false caso tenha
+	 *         sido desfeita.
+	 * @see #transfer(BankAccount, BankAccount, long)
+	 */
+	public static boolean transfer(BankAccount from, BankAccount to, long amount, BooleanSupplier commit)
+			throws InvalidOperation, InsufficientBalanceException {
+		if (amount < 0) {
 			throw new InvalidOperation();
 		}
-		return inf;
+		return settle(reserve(from, to, amount, null), commit);
 	}
 
-	public synchronized void removeIndPaymentRequest(String uniqueID, String userID) {
-		IndPaymentRequestInformation currInf = null;
+	/**
+	 * Paga um pedido de pagamento pendente desta conta: verifica que o pedido
+	 * continua pendente e reserva o valor no mesmo compare-and-set, pelo que um
+	 * pedido pago em simultaneo por duas conexoes so e pago uma vez.
+	 *
+	 * @param request O pedido, obtido com getIndPaymentRequestInf.
+	 * @param to      A conta de quem fez o pedido.
+	 * @throws InvalidIdentifierException   caso o pedido ja nao esteja pendente.
+	 * @throws InvalidOperation             caso o valor seja negativo.
+	 * @throws InsufficientBalanceException caso a conta nao tenha saldo
+	 *                                      suficiente.
+	 */
+	public void payRequest(IndPaymentRequestInformation request, BankAccount to)
+			throws InvalidIdentifierException, InvalidOperation, InsufficientBalanceException {
+		payRequest(request, to, () -> true);
+	}
 
-		for (int i = 0; i < indPendingPayment.size(); i++) {
-			currInf = indPendingPayment.get(i);
-			if (currInf.getUniqueID().equals(uniqueID)) {
-				if (currInf.getUserID().equals(userID)) {
-					indPendingPayment.remove(i);
-					paidPendingPayments.add(uniqueID);
-				}
+	/**
+	 * Paga um pedido de pagamento pendente, como payRequest(request, to), e so
+	 * remove o pedido e passa o valor para a conta de destino depois de o
+	 * pagamento ser confirmado, como em transfer(from, to, amount, commit).
+	 * Caso a confirmacao falhe, o pedido continua pendente.
+	 *
+	 * @param commit Chamado depois de o valor ter sido reservado; devolve false
+	 *               caso o pagamento deva ser desfeito.
+	 * @return true caso o pagamento tenha sido confirmado, false caso tenha
+	 *         sido desfeito.
+	 * @see #payRequest(IndPaymentRequestInformation, BankAccount)
+	 * @see #transfer(BankAccount, BankAccount, long, BooleanSupplier)
+	 */
+	public boolean payRequest(IndPaymentRequestInformation request, BankAccount to, BooleanSupplier commit)
+			throws InvalidIdentifierException, InvalidOperation, InsufficientBalanceException {
+		if (request.getAmount() < 0) {
+			throw new InvalidOperation();
+		}
+		PendingTransfer transfer = reserve(this, to, request.getAmount(), request);
+		if (transfer == null) {
+			throw new InvalidIdentifierException("O identificador nao existe.");
+		}
+		return settle(transfer, commit);
+	}
+
+	/**
+	 * Reserva um valor na conta de origem e regista a transferencia pendente
+	 * nas duas contas.
+	 *
+	 * @param request O pedido de pagamento pago pela transferencia, ou null.
+	 * @return A transferencia reservada, ou null caso o pedido ja nao esteja
+	 *         pendente (ou esteja a ser pago por outra transferencia).
+	 */
+	private static PendingTransfer reserve(BankAccount from, BankAccount to, long amount,
+			IndPaymentRequestInformation request) throws InsufficientBalanceException {
+		PendingTransfer transfer = new PendingTransfer(from, to, amount, request);
+		for (;;) {
+			Snapshot current = from.state.get();
+			if (request != null && (current.requests.get(request.getUniqueID()) != request
+					|| current.isBeingPaid(request))) {
+				return null;
+			}
+			if (current.available(from) < amount) {
+				throw new InsufficientBalanceException("Valor na conta insuficiente para proceder com operacao.");
+			}
+			if (from.state.compareAndSet(current, current.withPending(transfer))) {
+				break;
 			}
 		}
+		if (to != from) {
+			try {
+				// falha ja, e nao depois de a transferencia ser confirmada
+				to.state.updateAndGet(current -> {
+					Math.addExact(current.incoming(to), amount);
+					return current.withPending(transfer);
+				});
+			} catch (ArithmeticException e) {
+				from.complete(transfer, false);
+				throw e;
+			}
+		}
+		return transfer;
 	}
 
-	public IndPaymentRequestInformation getIndPaymentRequestInf(String uniqueID, String cipherPass) throws InvalidIdentifierException {
-		for (IndPaymentRequestInformation currInf : indPendingPayment) {
-			if (currInf.getUniqueID().equals(uniqueID)) {
-				return currInf;
+	/**
+	 * Confirma uma transferencia reservada e depois passa o valor para a conta de destino ou, caso a confirmacao falhe,
+	 * liberta a reserva.
+	 */
+	private static boolean settle(PendingTransfer transfer, BooleanSupplier commit) {
+		boolean committed = false;
+		try {
+			committed = commit.getAsBoolean();
+		} finally {
+			BankAccount from = transfer.from;
+			BankAccount to = transfer.to;
+			if (committed) {
+				if (transfer.request != null) {
+					from.paidPendingPayments.add(transfer.request.getUniqueID());
+				}
+				// a partir daqui, a transferencia e vista nas duas contas
+				transfer.committed = true;
+			}
+			from.complete(transfer, committed);
+			if (to != from) {
+				to.complete(transfer, committed);
 			}
 		}
-		if (IND_PENDING_PAYMENT_SINGLETON.getLine(cipherPass, uniqueID) != null && !paidPendingPayments.contains(uniqueID)) {
+		return committed;
+	}
+
+	/**
+	 * Retira uma transferencia das transferencias pendentes da conta, aplicando-a
+	 * ao saldo caso tenha sido confirmada.
+	 */
+	private void complete(PendingTransfer transfer, boolean committed) {
+		state.updateAndGet(current -> current.withoutPending(transfer, committed ? transfer.delta(this) : 0,
+				committed && transfer.from == this ? transfer.request : null));
+	}
+
+	public synchronized void recoverAddIndPaymentRequest(long amount, String userID, String userWhoRequestedPayment, RequestID uniqueID) {
+		IndPaymentRequestInformation inf = new IndPaymentRequestInformation(amount, userID, userWhoRequestedPayment, uniqueID);
+		state.updateAndGet(current -> current.withRequest(inf));
+	}
+
+	public IndPaymentRequestInformation addIndPaymentRequest(String userID, String userWhoRequestedPayment,
+			long amount, String cipherPass) throws InvalidOperation {
+		return addIndPaymentRequest(RequestID.random(), userID, userWhoRequestedPayment, amount, cipherPass);
+	}
+
+	/**
+	 * Faz um pedido de pagamento a esta conta com um identificador ja gerado,
+	 * para que o pedido possa ser associado a outros dados (por exemplo, a um
+	 * pedido de grupo) antes de o membro o poder ver e pagar.
+	 *
+	 * @param uniqueID O identificador do pedido.
+	 */
+	public synchronized IndPaymentRequestInformation addIndPaymentRequest(RequestID uniqueID, String userID,
+			String userWhoRequestedPayment, long amount, String cipherPass) throws InvalidOperation {
+		if (amount < 0) {
+			throw new InvalidOperation();
+		}
+		IndPaymentRequestInformation inf = new IndPaymentRequestInformation(amount, userID, userWhoRequestedPayment,
+				uniqueID);
+		state.updateAndGet(current -> current.withRequest(inf));
+		IND_PENDING_PAYMENT_SINGLETON.addLine(cipherPass, inf.getUniqueID(), Money.toDouble(amount),
+				userWhoRequestedPayment);
+		return inf;
+	}
+
+	public synchronized void removeIndPaymentRequest(RequestID uniqueID, String userID) {
+		IndPaymentRequestInformation currInf = snapshot().requests.get(uniqueID);
+		if (currInf != null && currInf.getUserID().equals(userID)) {
+			paidPendingPayments.add(uniqueID);
+			state.updateAndGet(current -> current.withoutRequest(uniqueID));
+		}
+	}
+
+	public IndPaymentRequestInformation getIndPaymentRequestInf(RequestID uniqueID, String cipherPass) throws InvalidIdentifierException {
+		IndPaymentRequestInformation currInf = snapshot().requests.get(uniqueID);
+		if (currInf != null) {
+			return currInf;
+		}
+		if (!paidPendingPayments.contains(uniqueID) && IND_PENDING_PAYMENT_SINGLETON.contains(cipherPass, uniqueID)) {
 			throw new InvalidIdentifierException("O identificador eh referente a um pagamento pedido a outro cliente.");
 		}
 		throw new InvalidIdentifierException("O identificador nao existe.");
@@ -101,15 +309,16 @@ public class BankAccount {
 	public List<String> getIndPaymtRequestList() {
 		List<String> pendingPayments = new ArrayList<String>();
 		StringBuilder sb = new StringBuilder();
+		Collection<IndPaymentRequestInformation> requests = snapshot().requests.values();
 
-		if (indPendingPayment.size() == 0) {
+		if (requests.size() == 0) {
 			return null;
 		}
 
-		for (IndPaymentRequestInformation ipri : indPendingPayment) {
+		for (IndPaymentRequestInformation ipri : requests) {
 			sb.append(ipri.getUniqueID());
 			sb.append(" ");
-			sb.append(ipri.getAmount());
+			sb.append(Money.toDouble(ipri.getAmount()));
 			sb.append(" ");
 			sb.append(ipri.getUserWhoRequestedPayment());
 			pendingPayments.add(sb.toString());
@@ -119,12 +328,12 @@ public class BankAccount {
 		return pendingPayments;
 	}
 
-	public List<String> getPaidPendingPayments() {
+	public Set<RequestID> getPaidPendingPayments() {
 		return paidPendingPayments;
 	}
 
-	public synchronized GroupPaymentReqInformation addGroupPaymentRequest(String groupID, double amount,
-			List<String> pendMembers, List<String> pendPayments, String cipherPass) {
+	public synchronized GroupPaymentReqInformation addGroupPaymentRequest(String groupID, long amount,
+			List<String> pendMembers, List<RequestID> pendPayments, String cipherPass) {
 		GroupPaymentReqInformation inf = new GroupPaymentReqInformation(groupID, amount, pendMembers, pendPayments);
 		List<GroupPaymentReqInformation> gpriList = groupsPaymentReqInfo.get(groupID);
 		if (gpriList == null) {
@@ -132,7 +341,7 @@ public class BankAccount {
 		}
 		gpriList.add(inf);
 		groupsPaymentReqInfo.put(groupID, gpriList);
-		GROUP_PENDING_PAYMENT_SINGLETON.addLine(cipherPass, groupID, amount);
+		GROUP_PENDING_PAYMENT_SINGLETON.addLine(cipherPass, groupID, Money.toDouble(amount));
 		return inf;
 	}
 
@@ -140,39 +349,32 @@ public class BankAccount {
 		return groupsPaymentReqInfo.get(groupID);
 	}
 
-	public synchronized String statusPayments(String groupID) {
-		StringBuilder sb = new StringBuilder();
-		List<GroupPaymentReqInformation> gpriList = groupsPaymentReqInfo.get(groupID);
-		if (gpriList == null) {
-			sb.append("Vazio.");
-		} else {
-			for (GroupPaymentReqInformation gpri : gpriList) {
-				sb.append("ID do Pedido: " + gpri.getUniqueID());
-				sb.append(System.getProperty("line.separator"));
-				if (gpri.getPendMembersID().size() == 0) {
-					sb.append("vazio");
-					sb.append(System.getProperty("line.separator"));
-				} else {
-					for (String pendMembers : gpri.getPendMembersID()) {
-						sb.append(pendMembers);
-						sb.append(System.getProperty("line.separator"));
-					}
-				}
-			}
+	/**
+	 * Obtem o estado dos pedidos de pagamento de um grupo.
+	 * 
+	 * @param groupID O identificador do grupo.
+	 * @return Uma copia dos membros que ainda nao pagaram, por identificador do
+	 *         pedido e pela ordem em que os pedidos foram feitos, ou um mapa
+	 *         vazio caso o grupo nao tenha pedidos.
+	 */
+	public Map<RequestID, List<String>> statusPayments(String groupID) {
+		Map<RequestID, List<String>> status = new LinkedHashMap<RequestID, List<String>>();
+		for (GroupPaymentReqInformation gpri : copyOf(groupID)) {
+			status.put(gpri.getUniqueID(), gpri.copyOfPendMembersID());
 		}
-		return sb.toString();
+		return status;
 	}
 
 	public List<String> getHistory(String groupID, String cipherPass) throws InvalidOperation {
-		List<GroupPaymentReqInformation> gpriList = groupsPaymentReqInfo.get(groupID);
+		List<GroupPaymentReqInformation> gpriList = copyOf(groupID);
 		List<String> completed = new ArrayList<String>();
-		if (gpriList == null) {
+		if (gpriList.isEmpty()) {
 			completed.add("Vazio.");
 			return completed;
 		}
 		for (GroupPaymentReqInformation gpri : gpriList) {
 			if (gpri.isCompleted()) {
-				completed.add(gpri.uniqueID);
+				completed.add(gpri.uniqueID.toString());
 			}
 		}
 
@@ -183,32 +385,213 @@ public class BankAccount {
 		return completed;
 	}
 
+	/**
+	 * Copia a lista dos pedidos de um grupo, para que o estado de cada pedido
+	 * seja lido sem o lock da conta.
+	 */
+	private synchronized List<GroupPaymentReqInformation> copyOf(String groupID) {
+		List<GroupPaymentReqInformation> gpriList = groupsPaymentReqInfo.get(groupID);
+		return gpriList == null ? new ArrayList<GroupPaymentReqInformation>()
+				: new ArrayList<GroupPaymentReqInformation>(gpriList);
+	}
+
+	/**
+	 * Estado imutavel de uma conta num dado momento. Cada alteracao da conta
+	 * publica um novo estado, pelo que as leituras nunca veem um estado parcial.
+	 * As transferencias pendentes ja confirmadas, mas ainda nao aplicadas ao
+	 * estado, sao aplicadas por resolve.
+	 */
+	public static final class Snapshot {
+
+		private final long balance;
+		// indexados pelo identificador, pela ordem em que foram feitos
+		private final Map<RequestID, IndPaymentRequestInformation> requests;
+		// transferencias de e para a conta que ainda nao foram confirmadas
+		private final List<PendingTransfer> pending;
+
+		private Snapshot(long balance, Map<RequestID, IndPaymentRequestInformation> requests,
+				List<PendingTransfer> pending) {
+			this.balance = balance;
+			this.requests = requests;
+			this.pending = pending;
+		}
+
+		/**
+		 * @return O saldo, em centimos.
+		 */
+		public long getBalance() {
+			return balance;
+		}
+
+		/**
+		 * @return Os pedidos de pagamento pendentes, pela ordem em que foram
+		 *         feitos.
+		 */
+		public Collection<IndPaymentRequestInformation> getPendingRequests() {
+			return requests.values();
+		}
+
+		/**
+		 * @param uniqueID O identificador do pedido.
+		 * @return O pedido de pagamento pendente, ou null caso nao exista.
+		 */
+		public IndPaymentRequestInformation getPendingRequest(RequestID uniqueID) {
+			return requests.get(uniqueID);
+		}
+
+		/**
+		 * O saldo que a conta pode gastar: o saldo sem os valores reservados por
+		 * transferencias da conta, com os valores das transferencias para a conta
+		 * ja confirmadas.
+		 */
+		private long available(BankAccount account) {
+			long available = balance;
+			for (PendingTransfer transfer : pending) {
+				if (transfer.from == account) {
+					available -= transfer.amount;
+				}
+				if (transfer.to == account && transfer.committed) {
+					available += transfer.amount;
+				}
+			}
+			return available;
+		}
+
+		/**
+		 * Aplica ao estado as transferencias pendentes ja confirmadas.
+		 *
+		 * @return O estado com as transferencias confirmadas aplicadas, ou este
+		 *         estado caso nao haja nenhuma.
+		 */
+		private Snapshot resolve(BankAccount account) {
+			Snapshot resolved = this;
+			for (PendingTransfer transfer : pending) {
+				if (transfer.committed) {
+					resolved = resolved.withoutPending(transfer, transfer.delta(account),
+							transfer.from == account ? transfer.request : null);
+				}
+			}
+			return resolved;
+		}
+
+		/**
+		 * O saldo que a conta tera caso todas as transferencias para a conta
+		 * ainda por confirmar o sejam.
+		 */
+		private long incoming(BankAccount account) {
+			long incoming = balance;
+			for (PendingTransfer transfer : pending) {
+				if (transfer.to == account && transfer.from != account) {
+					incoming = Math.addExact(incoming, transfer.amount);
+				}
+			}
+			return incoming;
+		}
+
+		private boolean isBeingPaid(IndPaymentRequestInformation request) {
+			for (PendingTransfer transfer : pending) {
+				if (transfer.request == request) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private Snapshot withBalance(long newBalance) {
+			return new Snapshot(newBalance, requests, pending);
+		}
+
+		private Snapshot withRequest(IndPaymentRequestInformation request) {
+			LinkedHashMap<RequestID, IndPaymentRequestInformation> newRequests = new LinkedHashMap<RequestID, IndPaymentRequestInformation>(
+					requests);
+			newRequests.put(request.getUniqueID(), request);
+			return new Snapshot(balance, Collections.unmodifiableMap(newRequests), pending);
+		}
+
+		private Snapshot withoutRequest(RequestID uniqueID) {
+			LinkedHashMap<RequestID, IndPaymentRequestInformation> newRequests = new LinkedHashMap<RequestID, IndPaymentRequestInformation>(
+					requests);
+			newRequests.remove(uniqueID);
+			return new Snapshot(balance, Collections.unmodifiableMap(newRequests), pending);
+		}
+
+		private Snapshot withPending(PendingTransfer transfer) {
+			List<PendingTransfer> newPending = new ArrayList<PendingTransfer>(pending);
+			newPending.add(transfer);
+			return new Snapshot(balance, requests, Collections.unmodifiableList(newPending));
+		}
+
+		/**
+		 * @param delta   O valor a somar ao saldo.
+		 * @param request O pedido pago pela transferencia, a remover, ou null.
+		 */
+		private Snapshot withoutPending(PendingTransfer transfer, long delta, IndPaymentRequestInformation request) {
+			List<PendingTransfer> newPending = new ArrayList<PendingTransfer>(pending);
+			newPending.remove(transfer);
+			Snapshot settled = new Snapshot(Math.addExact(balance, delta), requests,
+					Collections.unmodifiableList(newPending));
+			return request == null ? settled : settled.withoutRequest(request.getUniqueID());
+		}
+	}
+
+	/**
+	 * Transferencia reservada entre duas contas, ainda por confirmar.
+	 */
+	private static final class PendingTransfer {
+
+		private final BankAccount from;
+		private final BankAccount to;
+		private final long amount;
+		// o pedido de pagamento pago pela transferencia, ou null
+		private final IndPaymentRequestInformation request;
+		// escrito uma vez, antes de a transferencia ser aplicada ao estado das
+		// contas
+		private volatile boolean committed = false;
+
+		private PendingTransfer(BankAccount from, BankAccount to, long amount, IndPaymentRequestInformation request) {
+			this.from = from;
+			this.to = to;
+			this.amount = amount;
+			this.request = request;
+		}
+
+		/**
+		 * @return O valor que a transferencia soma ao saldo da conta.
+		 */
+		private long delta(BankAccount account) {
+			return (account == to ? amount : 0) - (account == from ? amount : 0);
+		}
+	}
+
 	public class IndPaymentRequestInformation {
 
-		private String uniqueID = null;
-		private Double amount = null;
+		private RequestID uniqueID = null;
+		private long amount;
 		private String userID = null;
 		private String userWhoRequestedPayment = null;
 
-		public IndPaymentRequestInformation(Double amount, String userID, String userWhoRequestedPayment) {
+		public IndPaymentRequestInformation(long amount, String userID, String userWhoRequestedPayment) {
 			this.amount = amount;
 			this.userID = userID;
 			this.userWhoRequestedPayment = userWhoRequestedPayment;
 			this.uniqueID = generateUniqueID();
 		}
 		
-		public IndPaymentRequestInformation(Double amount, String userID, String userWhoRequestedPayment, String uniqueID) {
+		public IndPaymentRequestInformation(long amount, String userID, String userWhoRequestedPayment, RequestID uniqueID) {
 			this.amount = amount;
 			this.userID = userID;
 			this.userWhoRequestedPayment = userWhoRequestedPayment;
 			this.uniqueID = uniqueID;
 		}
 
-		public String getUniqueID() {
+		public RequestID getUniqueID() {
 			return uniqueID;
 		}
 
-		public Double getAmount() {
+		/**
+		 * @return O valor do pedido, em centimos.
+		 */
+		public long getAmount() {
 			return amount;
 		}
 
@@ -220,8 +603,8 @@ public class BankAccount {
 			return userWhoRequestedPayment;
 		}
 
-		private String generateUniqueID() {
-			return UUID.randomUUID().toString();
+		private RequestID generateUniqueID() {
+			return RequestID.random();
 		}
 
 	}
@@ -229,14 +612,14 @@ public class BankAccount {
 	public class GroupPaymentReqInformation {
 
 		private String groupID = null;
-		private Double amount = null;
-		private List<String> pendPayments = null;
+		private long amount;
+		private List<RequestID> pendPayments = null;
 		private List<String> pendMembersID = null;
 		private List<String> usersWhoPaid = new ArrayList<String>();
-		private String uniqueID = null;
+		private RequestID uniqueID = null;
 
-		public GroupPaymentReqInformation(String groupID, double amount, List<String> pendMembersID,
-				List<String> pendPayments) {
+		public GroupPaymentReqInformation(String groupID, long amount, List<String> pendMembersID,
+				List<RequestID> pendPayments) {
 			this.groupID = groupID;
 			this.amount = amount;
 			this.pendPayments = pendPayments;
@@ -248,7 +631,10 @@ public class BankAccount {
 			return groupID;
 		}
 
-		public Double getAmount() {
+		/**
+		 * @return O valor do pedido, em centimos.
+		 */
+		public long getAmount() {
 			return amount;
 		}
 
@@ -256,11 +642,24 @@ public class BankAccount {
 			return pendMembersID;
 		}
 
-		public List<String> getPendPayments() {
+		public List<RequestID> getPendPayments() {
 			return pendPayments;
 		}
 
-		public synchronized void updatePendPaymtsList(String uniqueID, String userID) {
+		/**
+		 * Associa ao pedido de grupo um pedido individual feito a um dos membros.
+		 * 
+		 * @param uniqueID O identificador do pedido individual.
+		 */
+		public synchronized void addPendPayment(RequestID uniqueID) {
+			pendPayments.add(uniqueID);
+		}
+
+		public synchronized List<String> copyOfPendMembersID() {
+			return new ArrayList<String>(pendMembersID);
+		}
+
+		public synchronized void updatePendPaymtsList(RequestID uniqueID, String userID) {
 			pendPayments.remove(uniqueID);
 			pendMembersID.remove(userID);
 			usersWhoPaid.add(userID);
@@ -270,15 +669,15 @@ public class BankAccount {
 			return usersWhoPaid;
 		}
 
-		public String getUniqueID() {
+		public RequestID getUniqueID() {
 			return uniqueID;
 		}
 
-		private String generateUniqueID() {
-			return UUID.randomUUID().toString();
+		private RequestID generateUniqueID() {
+			return RequestID.random();
 		}
 
-		private boolean isCompleted() {
+		private synchronized boolean isCompleted() {
 			return pendPayments.size() == 0;
 		}
 	}
@@ -1,23 +1,55 @@
 package domain;
 
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import domain.BankAccount.GroupPaymentReqInformation;
 
 import exceptions.UserNotFoundException;
 
 /**
- * Classe responsavel pela gestao dos clientes e suas respectivas contas.
+ * Classe responsavel pela gestao dos clientes e suas respectivas contas. As
+ * contas sao guardadas num mapa concorrente, pelo que os registos de novos
+ * usuarios e as consultas das contas podem ser feitos em paralelo.
  * 
  * @author grupo 36.
  *
  */
 public class BankAccountCatalog {
 
-	private HashMap<String, BankAccount> hashMap = new HashMap<String, BankAccount>();
+	private final Map<String, BankAccount> hashMap;
+	private Map<RequestID, GroupPaymentReqInformation> groupPayments = new ConcurrentHashMap<RequestID, GroupPaymentReqInformation>();
 
-	public void add(String userID, BankAccount bankAccount) {
-		if (!hashMap.containsKey(userID)) {
-			hashMap.put(userID, bankAccount);
+	public BankAccountCatalog() {
+		hashMap = new ConcurrentHashMap<String, BankAccount>();
+	}
+
+	/**
+	 * @param expectedAccounts O numero de contas que o catalogo deve guardar sem
+	 *                         ter de crescer.
+	 */
+	public BankAccountCatalog(int expectedAccounts) {
+		hashMap = new ConcurrentHashMap<String, BankAccount>(expectedAccounts);
+	}
+
+	/**
+	 * Cria o catalogo com uma conta nova para cada usuario registado, ja com o
+	 * tamanho necessario para todos.
+	 *
+	 * @param userIDs Os identificadores dos usuarios registados.
+	 * @return O catalogo.
+	 */
+	public static BankAccountCatalog load(Collection<String> userIDs) {
+		BankAccountCatalog catalog = new BankAccountCatalog(userIDs.size());
+		for (String userID : userIDs) {
+			catalog.add(userID, new BankAccount());
 		}
+		return catalog;
+	}
+
+	public void add(String userID, BankAccount bankAccount) {
+		hashMap.putIfAbsent(userID, bankAccount);
 	}
 
 	public BankAccount getBankAccount(String userID) throws UserNotFoundException {
@@ -28,4 +60,30 @@ public class BankAccountCatalog {
 		return userBankAccount;
 	}
 
+	/**
+	 * Associa um pedido individual ao pedido de grupo de que faz parte, para que
+	 * o pedido de grupo seja atualizado quando o pedido individual for pago.
+	 * 
+	 * @param uniqueID O identificador do pedido individual.
+	 * @param gpri     O pedido de grupo.
+	 */
+	public void linkGroupPayment(RequestID uniqueID, GroupPaymentReqInformation gpri) {
+		gpri.addPendPayment(uniqueID);
+		groupPayments.put(uniqueID, gpri);
+	}
+
+	/**
+	 * Atualiza o pedido de grupo associado a um pedido individual que foi pago,
+	 * caso exista.
+	 * 
+	 * @param uniqueID O identificador do pedido individual.
+	 * @param userID   O membro que pagou.
+	 */
+	public void settleGroupPayment(RequestID uniqueID, String userID) {
+		GroupPaymentReqInformation gpri = groupPayments.remove(uniqueID);
+		if (gpri != null) {
+			gpri.updatePendPaymtsList(uniqueID, userID);
+		}
+	}
+
 }
@@ -1,8 +1,11 @@
 package domain;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
@@ -13,63 +16,193 @@ import java.security.SignatureException;
 
 import domain.utils.AppendingObjectOutputStream;
 
+/**
+ * Bloco da blockchain. O cabecalho regista o hash do bloco anterior, o indice
+ * do bloco e o numero maximo de transacoes. O bloco e selado quando atinge esse
+ * numero ou quando a blockchain o decide selar mais cedo: o selo regista o
+ * numero real de transacoes do bloco, seguido da assinatura do servidor.
+ *
+ * @author grupo 36.
+ *
+ */
 public class Block {
 
+	public static final int DEFAULT_CAPACITY = 5;
+
+	private FileOutputStream out = null;
 	private ObjectOutputStream file = null;
 	private Signature signEng = null;
 	private MessageDigest digestEng = null;
 	private byte[] prevHash = null;
+	private final int capacity;
 	private long numTransactions = 0;
+	private long firstTransactionAt = 0;
+	private boolean sealed = false;
 
 	public Block(PrivateKey pk, long index, byte[] prevHash) {
+		this(pk, index, prevHash, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param pk       A chave privada com que o servidor sela o bloco.
+	 * @param index    O indice do bloco.
+	 * @param prevHash O hash do bloco anterior.
+	 * @param capacity O numero de transacoes a partir do qual o bloco e selado.
+	 */
+	public Block(PrivateKey pk, long index, byte[] prevHash, int capacity) {
+		this.capacity = capacity;
 		try {
+			signEng = Signature.getInstance("SHA256withRSA");
+			signEng.initSign(pk);
+			digestEng = MessageDigest.getInstance("SHA256");
+			this.prevHash = prevHash;
+
 			File f = new File("block_" + index + ".blk");
-			if (f.exists()) {
-				file = new AppendingObjectOutputStream(new FileOutputStream(f, true));
+			boolean exists = f.exists();
+			if (exists) {
+				resume(f);
+			}
+			out = new FileOutputStream(f, true);
+			if (exists) {
+				file = new AppendingObjectOutputStream(out);
 			} else {
-				file = new ObjectOutputStream(new FileOutputStream(f, true));
+				file = new ObjectOutputStream(out);
 				file.writeObject(prevHash);
 				file.writeObject(String.valueOf(index).getBytes());
-				file.writeObject(String.valueOf(5).getBytes());
+				file.writeObject(String.valueOf(capacity).getBytes());
 			}
-			signEng = Signature.getInstance("SHA256withRSA");
-			signEng.initSign(pk);
-			digestEng = MessageDigest.getInstance("SHA256");
-			this.prevHash = prevHash;
-		} catch (NoSuchAlgorithmException | InvalidKeyException | IOException e) {
+		} catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException | IOException
+				| ClassNotFoundException e) {
 			e.printStackTrace();
 		}
 	}
 
-	public void writeTransaction(byte[] transaction, byte[] signature) {
-		try {
-			file.writeObject(transaction);
-			digestEng.update(transaction);
-
-			file.writeObject(signature);
-			signEng.update(signature);
-			digestEng.update(signature);
-
-			numTransactions++;
-			if (numTransactions == 5) {
-				byte[] sign = signEng.sign();
-				file.writeObject(sign);
-				file.flush();
-				file.close();
-				digestEng.update(sign);
-				prevHash = digestEng.digest();
+	/**
+	 * Retoma um bloco por selar: as transacoes ja escritas entram no hash e na
+	 * assinatura do bloco.
+	 */
+	private void resume(File f) throws IOException, ClassNotFoundException, SignatureException {
+		try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f))) {
+			ois.readObject();
+			ois.readObject();
+			ois.readObject();
+			for (;;) {
+				byte[] transaction = (byte[]) ois.readObject();
+				byte[] signature = (byte[]) ois.readObject();
+				digestEng.update(transaction);
+				signEng.update(signature);
+				digestEng.update(signature);
+				numTransactions++;
 			}
-		} catch (IOException | SignatureException e) {
+		} catch (EOFException e) {
+			if (numTransactions > 0) {
+				firstTransactionAt = System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * Escreve uma transacao no bloco, selando-o caso fique cheio.
+	 *
+	 * @throws IOException        caso a transacao nao possa ser escrita.
+	 * @throws SignatureException caso o bloco cheio nao possa ser assinado.
+	 */
+	public void writeTransaction(byte[] transaction, byte[] signature) throws IOException, SignatureException {
+		file.writeObject(transaction);
+		digestEng.update(transaction);
+
+		file.writeObject(signature);
+		signEng.update(signature);
+		digestEng.update(signature);
+
+		if (numTransactions++ == 0) {
+			firstTransactionAt = System.currentTimeMillis();
+		}
+		if (numTransactions >= capacity) {
+			seal();
+		}
+	}
+
+	/**
+	 * Sela o bloco: escreve o numero de transacoes do bloco e a assinatura do
+	 * servidor, guarda o bloco no disco e fecha-o.
+	 *
+	 * @throws IOException        caso o selo nao possa ser escrito.
+	 * @throws SignatureException caso o bloco nao possa ser assinado.
+	 */
+	public void seal() throws IOException, SignatureException {
+		if (file == null || sealed) {
+			return;
+		}
+		byte[] count = String.valueOf(numTransactions).getBytes();
+		file.writeObject(Long.valueOf(numTransactions));
+		signEng.update(count);
+		digestEng.update(count);
+
+		byte[] sign = signEng.sign();
+		file.writeObject(sign);
+		file.flush();
+		out.getFD().sync();
+		file.close();
+		digestEng.update(sign);
+		prevHash = digestEng.digest();
+		sealed = true;
+	}
+
+	/**
+	 * Escreve no disco as transacoes do bloco ainda em memoria e espera que o
+	 * sistema operativo as guarde. Um bloco ja selado foi guardado ao ser selado.
+	 */
+	public void sync() throws IOException {
+		if (file == null || isClosed()) {
+			return;
+		}
+		file.flush();
+		out.getFD().sync();
+	}
+
+	public void close() {
+		if (file == null || isClosed()) {
+			return;
+		}
+		try {
+			file.flush();
+			file.close();
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
 	public void setNumTransactions(long numTransactions) {
 		this.numTransactions = numTransactions;
+		if (numTransactions > 0) {
+			firstTransactionAt = System.currentTimeMillis();
+		}
+	}
+
+	public long getNumTransactions() {
+		return numTransactions;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param maxAgeMillis O tempo maximo, em milissegundos, entre a primeira
+	 *                     transacao do bloco e o seu selo, ou 0 caso nao exista.
+	 * @return O instante, em milissegundos, em que o bloco deve ser selado, ou
+	 *         Long.MAX_VALUE caso nao deva ser selado por tempo.
+	 */
+	public long getSealDeadline(long maxAgeMillis) {
+		if (maxAgeMillis <= 0 || sealed || numTransactions == 0) {
+			return Long.MAX_VALUE;
+		}
+		return firstTransactionAt + maxAgeMillis;
 	}
 
 	public boolean isClosed() {
-		return numTransactions == 5;
+		return sealed;
 	}
 
 	public byte[] getHash() {
@@ -6,19 +6,60 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
+import java.security.SignatureException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Blockchain das transacoes do servidor. As transacoes sao escritas por uma
+ * unica thread, pela ordem de chegada: a thread retira da fila todas as
+ * transacoes pendentes, escreve-as e guarda-as no disco de uma so vez, e so
+ * entao da por concluida a escrita de cada uma. Cada bloco e selado quando
+ * atinge a capacidade configurada ou, caso exista um tempo maximo, quando a
+ * sua primeira transacao atinge esse tempo. Caso a escrita de um bloco falhe,
+ * o bloco fica num estado desconhecido e todas as escritas seguintes falham.
+ *
+ * @author grupo 36.
+ *
+ */
 public class BlockChain {
 
 	private static final String SERVER_KEYSTORE_PATH = "Projeto1-Fase2/security/server.keystore";
+	private static final int MAX_BATCH = 256;
 
 	private PrivateKey privateKey = null;
 	private long index;
 	private byte[] prevHash;
 	private Block block = null;
+	private final int capacity;
+	private final long maxAgeMillis;
+	private final BlockingQueue<Append> queue = new LinkedBlockingQueue<Append>();
+	private boolean closed = false;
+	// so e usado pela thread da blockchain
+	private IOException failure = null;
 
 	public BlockChain(long index, byte[] hash, long numTransactions) {
+		this(index, hash, numTransactions, Block.DEFAULT_CAPACITY, 0);
+	}
+
+	/**
+	 * @param index           O indice do bloco onde sao escritas as transacoes.
+	 * @param hash            O hash do bloco anterior.
+	 * @param numTransactions O numero de transacoes ja escritas no bloco.
+	 * @param capacity        O numero de transacoes de cada bloco.
+	 * @param maxAgeMillis    O tempo maximo, em milissegundos, entre a primeira
+	 *                        transacao de um bloco e o seu selo, ou 0 caso os
+	 *                        blocos so sejam selados quando cheios.
+	 */
+	public BlockChain(long index, byte[] hash, long numTransactions, int capacity, long maxAgeMillis) {
+		this.capacity = capacity;
+		this.maxAgeMillis = maxAgeMillis;
 		FileInputStream kfile;
 		try {
 			this.index = index;
@@ -30,22 +71,146 @@ public class BlockChain {
 
 			privateKey = (PrivateKey) kstore.getKey("server", "123456".toCharArray());
 
-			block = new Block(privateKey, index, prevHash);
+			block = new Block(privateKey, index, prevHash, capacity);
 			block.setNumTransactions(numTransactions);
+			if (numTransactions >= capacity) {
+				// a capacidade diminuiu desde que o bloco foi criado
+				block.seal();
+			}
 		} catch (IOException | KeyStoreException | UnrecoverableKeyException | NoSuchAlgorithmException
-				| CertificateException e) {
+				| CertificateException | SignatureException e) {
 			e.printStackTrace();
 		}
+
+		Thread writer = new Thread(this::writeLoop, "blockchain-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Acrescenta uma transacao a blockchain, sem esperar que seja escrita.
+	 *
+	 * @param strTransaction A transacao.
+	 * @param signature      A assinatura da transacao.
+	 * @return Completado quando a transacao estiver guardada no disco, ou
+	 *         completado com a excecao que impediu a escrita.
+	 */
+	public CompletableFuture<Void> append(String strTransaction, byte[] signature) {
+		Append append = new Append(strTransaction.getBytes(), signature);
+		synchronized (this) {
+			if (closed) {
+				append.durable.completeExceptionally(new IllegalStateException("A blockchain esta fechada."));
+				return append.durable;
+			}
+			queue.add(append);
+		}
+		return append.durable;
 	}
 
+	/**
+	 * Acrescenta uma transacao a blockchain e espera que seja guardada no disco.
+	 */
 	public void writeTransaction(String strTransaction, byte[] signature) {
-		byte[] transaction = strTransaction.getBytes();
-		if (block.isClosed()) {
-			index++;
-			prevHash = block.getHash();
-			block = new Block(privateKey, index, prevHash);
+		append(strTransaction, signature).join();
+	}
+
+	/**
+	 * Escreve no disco as transacoes pendentes e fecha o bloco atual. O bloco
+	 * continua incompleto e e retomado no proximo arranque do servidor.
+	 */
+	public void close() {
+		Append stop = new Append(null, null);
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			queue.add(stop);
+		}
+		stop.durable.join();
+	}
+
+	private void writeLoop() {
+		List<Append> batch = new ArrayList<Append>();
+		for (;;) {
+			try {
+				long deadline = block == null || failure != null ? Long.MAX_VALUE
+						: block.getSealDeadline(maxAgeMillis);
+				Append first = null;
+				if (deadline == Long.MAX_VALUE) {
+					first = queue.take();
+				} else {
+					long timeout = deadline - System.currentTimeMillis();
+					first = timeout > 0 ? queue.poll(timeout, TimeUnit.MILLISECONDS) : queue.poll();
+				}
+				if (first == null) {
+					// o bloco atingiu o tempo maximo sem ficar cheio
+					sealExpiredBlock();
+					continue;
+				}
+				batch.add(first);
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+
+			Append stop = null;
+			try {
+				if (failure != null) {
+					throw failure;
+				}
+				for (Append append : batch) {
+					if (append.transaction == null) {
+						stop = append;
+						continue;
+					}
+					if (block.isClosed()) {
+						index++;
+						prevHash = block.getHash();
+						block = new Block(privateKey, index, prevHash, capacity);
+					}
+					block.writeTransaction(append.transaction, append.signature);
+				}
+				if (block.getSealDeadline(maxAgeMillis) <= System.currentTimeMillis()) {
+					block.seal();
+				} else {
+					block.sync();
+				}
+				for (Append append : batch) {
+					if (append != stop) {
+						append.durable.complete(null);
+					}
+				}
+			} catch (IOException | SignatureException | RuntimeException e) {
+				if (failure == null) {
+					e.printStackTrace();
+					failure = new IOException("A blockchain nao pode ser escrita.", e);
+				}
+				for (Append append : batch) {
+					if (append != stop) {
+						append.durable.completeExceptionally(e);
+					}
+				}
+			}
+			batch.clear();
+
+			if (stop != null) {
+				if (block != null) {
+					block.close();
+				}
+				stop.durable.complete(null);
+				return;
+			}
+		}
+	}
+
+	private void sealExpiredBlock() {
+		try {
+			block.seal();
+		} catch (IOException | SignatureException e) {
+			e.printStackTrace();
+			failure = new IOException("A blockchain nao pode ser escrita.", e);
 		}
-		block.writeTransaction(transaction, signature);
 	}
 
 	public void setIndex(long index) {
@@ -55,4 +220,19 @@ public class BlockChain {
 	public void setHash(byte[] hash) {
 		prevHash = hash;
 	}
+
+	/**
+	 * Transacao a escrever pela thread da blockchain.
+	 */
+	private static final class Append {
+
+		private final byte[] transaction;
+		private final byte[] signature;
+		private final CompletableFuture<Void> durable = new CompletableFuture<Void>();
+
+		private Append(byte[] transaction, byte[] signature) {
+			this.transaction = transaction;
+			this.signature = signature;
+		}
+	}
 }
@@ -1,32 +1,47 @@
 package domain;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Group {
 
 	private List<String> groupMembers = new ArrayList<String>();
 
-	public void add(String id) {
-		groupMembers.add(id);
+	/**
+	 * Adiciona um membro ao grupo, caso ainda nao pertenca ao grupo. O primeiro
+	 * membro adicionado e o dono do grupo.
+	 *
+	 * @param id O identificador do membro.
+	 * @return true caso o membro tenha sido adicionado, false caso ja pertenca
+	 *         ao grupo.
+	 */
+	public synchronized boolean addMember(String id) {
+		if (groupMembers.contains(id)) {
+			return false;
+		}
+		return groupMembers.add(id);
 	}
 
-	public boolean isOwner(String id) {
+	public synchronized boolean isOwner(String id) {
 		if (groupMembers.get(0).equals(id)) {
 			return true;
 		}
 		return false;
 	}
 
-	public boolean contains(String userID) {
+	public synchronized boolean contains(String userID) {
 		return groupMembers.contains(userID);
 	}
 
-	public List<String> getGroupMembers() {
-		return groupMembers;
+	/**
+	 * @return Uma copia imutavel dos membros do grupo, a comecar pelo dono.
+	 */
+	public synchronized List<String> getGroupMembers() {
+		return Collections.unmodifiableList(new ArrayList<String>(groupMembers));
 	}
 
-	public void setGroup(List<String> group) {
+	public synchronized void setGroup(List<String> group) {
 		this.groupMembers = group;
 	}
 
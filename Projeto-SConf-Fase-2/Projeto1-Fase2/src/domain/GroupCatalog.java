@@ -1,30 +1,65 @@
 package domain;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import exceptions.UserNotFoundException;
 
+/**
+ * Classe responsavel pela gestao dos grupos. Mantem, para cada usuario, os
+ * grupos de que e dono e os grupos de que e membro, para que a listagem dos
+ * grupos de um usuario nao percorra todos os grupos.
+ *
+ * @author grupo 36.
+ *
+ */
 public class GroupCatalog {
 
 	private HashMap<String, Group> groupList = new HashMap<String, Group>();
+	private Map<String, List<String>> ownedGroups = new HashMap<String, List<String>>();
+	private Map<String, List<String>> memberGroups = new HashMap<String, List<String>>();
 
-	public void add(String userID, Group group) {
-		if (!groupList.containsKey(userID)) {
-			groupList.put(userID, group);
+	/**
+	 * Adiciona um grupo, caso ainda nao exista um grupo com o mesmo
+	 * identificador.
+	 *
+	 * @param groupID O identificador do grupo.
+	 * @param group   O grupo.
+	 * @return true caso o grupo tenha sido adicionado, false caso ja exista.
+	 */
+	public synchronized boolean add(String groupID, Group group) {
+		if (groupList.containsKey(groupID)) {
+			return false;
 		}
+		groupList.put(groupID, group);
+		index(groupID, group);
+		return true;
 	}
 
-	public boolean contains(String key) {
-		for (String x : groupList.keySet()) {
-			if (x.equals(key)) {
-				return true;
-			}
+	/**
+	 * Adiciona um membro a um grupo existente, caso ainda nao pertenca ao grupo.
+	 *
+	 * @param groupID O identificador do grupo.
+	 * @param userID  O identificador do novo membro.
+	 * @return true caso o membro tenha sido adicionado, false caso ja pertenca
+	 *         ao grupo.
+	 */
+	public synchronized boolean addMember(String groupID, String userID) throws UserNotFoundException {
+		if (!getGroup(groupID).addMember(userID)) {
+			return false;
 		}
-		return false;
+		indexOf(memberGroups, userID).add(groupID);
+		return true;
 	}
 
-	public Group getGroup(String userID) throws UserNotFoundException {
+	public synchronized boolean contains(String key) {
+		return groupList.containsKey(key);
+	}
+
+	public synchronized Group getGroup(String userID) throws UserNotFoundException {
 		Group group = groupList.get(userID);
 		if (group == null) {
 			throw new UserNotFoundException("Nao existe groupo com esse id.");
@@ -32,15 +67,55 @@ public class GroupCatalog {
 		return group;
 	}
 
+	/**
+	 * @param userID O identificador do usuario.
+	 * @return Os grupos de que o usuario e dono, pela ordem em que foram criados.
+	 */
+	public synchronized List<String> getOwnedGroups(String userID) {
+		List<String> groups = ownedGroups.get(userID);
+		return groups == null ? new ArrayList<String>() : new ArrayList<String>(groups);
+	}
+
+	/**
+	 * @param userID O identificador do usuario.
+	 * @return Os grupos de que o usuario e membro sem ser dono, pela ordem em que
+	 *         foi adicionado.
+	 */
+	public synchronized List<String> getMemberGroups(String userID) {
+		List<String> groups = memberGroups.get(userID);
+		return groups == null ? new ArrayList<String>() : new ArrayList<String>(groups);
+	}
+
 	public HashMap<String, Group> getGroupList() {
 		return groupList;
 	}
 
-	public void setGroup(HashMap<String, Group> groupList) {
+	public synchronized void setGroup(HashMap<String, Group> groupList) {
 		this.groupList = groupList;
+		ownedGroups = new HashMap<String, List<String>>();
+		memberGroups = new HashMap<String, List<String>>();
+		for (Map.Entry<String, Group> entry : groupList.entrySet()) {
+			index(entry.getKey(), entry.getValue());
+		}
 	}
 
 	public Collection<Group> values() {
 		return groupList.values();
 	}
-}
\ No newline at end of file
+
+	private void index(String groupID, Group group) {
+		List<String> members = group.getGroupMembers();
+		for (int i = 0; i < members.size(); i++) {
+			indexOf(i == 0 ? ownedGroups : memberGroups, members.get(i)).add(groupID);
+		}
+	}
+
+	private static List<String> indexOf(Map<String, List<String>> index, String userID) {
+		List<String> groups = index.get(userID);
+		if (groups == null) {
+			groups = new ArrayList<String>();
+			index.put(userID, groups);
+		}
+		return groups;
+	}
+}
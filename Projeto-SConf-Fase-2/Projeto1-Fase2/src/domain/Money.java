@@ -0,0 +1,71 @@
+package domain;
+
+import java.math.BigDecimal;
+
+/**
+ * Valores em dinheiro, representados por um numero inteiro de centimos para
+ * que as operacoes sobre os saldos sejam exatas. Os valores continuam a ser
+ * mostrados e guardados nos ficheiros com casas decimais.
+ *
+ * @author grupo 36.
+ *
+ */
+public final class Money {
+
+	/**
+	 * O numero de casas decimais da unidade monetaria.
+	 */
+	public static final int SCALE = 2;
+
+	private static final double CENTS = Math.pow(10, SCALE);
+
+	private Money() {
+	}
+
+	/**
+	 * Converte um valor indicado por um usuario.
+	 *
+	 * @param amount O valor, com ate SCALE casas decimais.
+	 * @return O valor em centimos.
+	 * @throws NumberFormatException caso o valor nao seja um numero ou tenha mais
+	 *                               casas decimais do que as da unidade.
+	 */
+	public static long parse(String amount) {
+		try {
+			return new BigDecimal(amount).setScale(SCALE).unscaledValue().longValueExact();
+		} catch (ArithmeticException e) {
+			throw new NumberFormatException("Valor invalido: " + amount);
+		}
+	}
+
+	/**
+	 * Converte um valor guardado antes de os saldos serem inteiros,
+	 * arredondando-o ao centimo.
+	 *
+	 * @param amount O valor.
+	 * @return O valor em centimos.
+	 */
+	public static long of(double amount) {
+		return Math.round(amount * CENTS);
+	}
+
+	/**
+	 * @param cents Um valor em centimos.
+	 * @return O valor com casas decimais, para ser mostrado ou guardado.
+	 */
+	public static double toDouble(long cents) {
+		return cents / CENTS;
+	}
+
+	/**
+	 * Divide um valor em partes iguais, arredondadas ao centimo.
+	 *
+	 * @param cents O valor em centimos.
+	 * @param parts O numero de partes.
+	 * @return O valor de cada parte, em centimos.
+	 */
+	public static long divide(long cents, int parts) {
+		return Math.round((double) cents / parts);
+	}
+
+}
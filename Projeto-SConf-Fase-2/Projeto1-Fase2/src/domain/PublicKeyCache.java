@@ -0,0 +1,86 @@
+package domain;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import data.UsersData;
+import data.UsersData.User;
+
+/**
+ * Classe responsavel pela cache das chaves publicas dos usuarios registados.
+ * A chave de cada usuario e lida do seu certificado uma unica vez, na primeira
+ * verificacao de uma assinatura sua, e descartada quando o usuario volta a ser
+ * registado.
+ *
+ * @author grupo 36.
+ *
+ */
+public class PublicKeyCache {
+
+	private static final PublicKeyCache INSTANCE = new PublicKeyCache();
+
+	private final Map<String, PublicKey> publicKeys = new ConcurrentHashMap<String, PublicKey>();
+
+	private PublicKeyCache() {
+	}
+
+	public static PublicKeyCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Obtem a chave publica de um usuario registado.
+	 *
+	 * @param cipherPass A password da cifra dos ficheiros do servidor.
+	 * @param userID     O identificador do usuario.
+	 * @return A chave publica, ou null caso o usuario nao esteja registado ou o
+	 *         seu certificado nao possa ser lido.
+	 */
+	public PublicKey get(String cipherPass, String userID) {
+		PublicKey publicKey = publicKeys.get(userID);
+		if (publicKey != null) {
+			return publicKey;
+		}
+
+		User user = UsersData.getLine(cipherPass, userID);
+		if (user == null) {
+			return null;
+		}
+		try (FileInputStream fis = new FileInputStream(user.getCertificatePath())) {
+			Certificate certificate = CertificateFactory.getInstance("X509").generateCertificate(fis);
+			publicKey = certificate.getPublicKey();
+		} catch (IOException | CertificateException e) {
+			e.printStackTrace();
+			return null;
+		}
+		publicKeys.put(userID, publicKey);
+		return publicKey;
+	}
+
+	/**
+	 * Guarda a chave publica de um usuario.
+	 *
+	 * @param userID    O identificador do usuario.
+	 * @param publicKey A chave publica.
+	 */
+	public void put(String userID, PublicKey publicKey) {
+		publicKeys.put(userID, publicKey);
+	}
+
+	/**
+	 * Descarta a chave publica de um usuario, que e lida de novo do seu
+	 * certificado quando for necessaria.
+	 *
+	 * @param userID O identificador do usuario.
+	 */
+	public void invalidate(String userID) {
+		publicKeys.remove(userID);
+	}
+
+}
@@ -1,41 +1,103 @@
 package domain;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Le as transacoes dos blocos da blockchain, pela ordem dos blocos, e obtem o
+ * bloco onde devem continuar a ser escritas: o ultimo bloco, caso nao esteja
+ * selado, ou o bloco seguinte.
+ *
+ * @author grupo 36.
+ *
+ */
 public class RecoverBlockChain {
 
 	private static long index = 1;
-	private static byte[] hash = new byte[32];
-	private static byte[] prevHash = hash.clone();
+	private static byte[] prevHash = new byte[32];
+	private static long numTransactions = 0;
+	private static boolean sealed = false;
+	private static List<Long> transactionTimes = new ArrayList<Long>();
 
 	public static List<String> recoverAllBlocks() {
 		List<String> transactions = new ArrayList<String>();
 		List<String> blockTransactions = null;
+		transactionTimes = new ArrayList<Long>();
 
 		while ((blockTransactions = readBlock()) != null) {
 			transactions.addAll(blockTransactions);
+			long time = new File("block_" + index + ".blk").lastModified();
+			for (int i = 0; i < blockTransactions.size(); i++) {
+				transactionTimes.add(time);
+			}
+			if (!sealed) {
+				numTransactions = blockTransactions.size();
+				break;
+			}
 			index++;
 		}
-		if (index > 1) {
-			index--;
-		}
 		return transactions;
 	}
 
+	/**
+	 * Volta ao estado inicial, para que a blockchain possa ser recuperada de
+	 * novo a partir do primeiro bloco.
+	 */
+	public static void reset() {
+		index = 1;
+		prevHash = new byte[32];
+		numTransactions = 0;
+		sealed = false;
+		transactionTimes = new ArrayList<Long>();
+	}
+
+	/**
+	 * @return O indice do bloco onde devem ser escritas as proximas transacoes.
+	 */
 	public static long getIndex() {
 		return index;
 	}
 
+	/**
+	 * @return O hash do bloco anterior ao bloco onde devem ser escritas as
+	 *         proximas transacoes.
+	 */
 	public static byte[] getHash() {
 		return prevHash;
 	}
 
+	/**
+	 * @return O numero de transacoes ja escritas no bloco onde devem ser
+	 *         escritas as proximas transacoes.
+	 */
+	public static long getNumTransactions() {
+		return numTransactions;
+	}
+
+	/**
+	 * Os blocos nao registam a hora de cada transacao: e usada a hora da ultima
+	 * escrita do bloco, que nunca e anterior a das suas transacoes.
+	 *
+	 * @return A hora, em milissegundos, de cada transacao devolvida por
+	 *         recoverAllBlocks, pela mesma ordem.
+	 */
+	public static List<Long> getTransactionTimes() {
+		return transactionTimes;
+	}
+
+	/**
+	 * Le as transacoes do bloco atual. Caso o bloco esteja selado, calcula o seu
+	 * hash, que encadeia o bloco seguinte. Os blocos selados antes de o selo
+	 * registar o numero de transacoes terminam apenas com a assinatura.
+	 */
 	private static List<String> readBlock() {
 		List<String> transactions = new ArrayList<String>();
 		FileInputStream fis;
@@ -45,27 +107,51 @@ public class RecoverBlockChain {
 			fis = new FileInputStream("block_" + index + ".blk");
 			ois = new ObjectInputStream(fis);
 
-			hash = (byte[]) ois.readObject();
+			byte[] hash = (byte[]) ois.readObject();
 			ois.readObject();
 			ois.readObject();
+			MessageDigest digestEng = MessageDigest.getInstance("SHA256");
+			sealed = false;
 
+			byte[] last = null;
 			try {
 				for (;;) {
-					String transaction = new String((byte[]) ois.readObject());
+					Object next = ois.readObject();
+					if (next instanceof Long) {
+						long count = (Long) next;
+						if (count != transactions.size()) {
+							System.err.println("Bloco " + index + ": o selo indica " + count + " transacoes, mas "
+									+ transactions.size() + " foram lidas.");
+						}
+						digestEng.update(String.valueOf(count).getBytes());
+						digestEng.update((byte[]) ois.readObject());
+						prevHash = digestEng.digest();
+						sealed = true;
+						return transactions;
+					}
+					last = (byte[]) next;
 					byte[] signature = (byte[]) ois.readObject();
+					last = null;
 					// TODO verify signature
-					transactions.add(transaction);
-					if (transactions.size() == 5) {
-						prevHash = hash.clone();
-					}
+					digestEng.update((byte[]) next);
+					digestEng.update(signature);
+					transactions.add(new String((byte[]) next));
 				}
 			} catch (EOFException e) {
+				if (last != null) {
+					// selo sem o numero de transacoes
+					digestEng.update(last);
+					prevHash = digestEng.digest();
+					sealed = true;
+				} else {
+					prevHash = hash;
+				}
 				return transactions;
 			}
 
 		} catch (FileNotFoundException e) {
 			return null;
-		} catch (IOException | ClassNotFoundException e) {
+		} catch (IOException | ClassNotFoundException | NoSuchAlgorithmException e) {
 			e.printStackTrace();
 		} finally {
 			try {
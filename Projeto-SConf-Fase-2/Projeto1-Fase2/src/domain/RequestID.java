@@ -0,0 +1,82 @@
+package domain;
+
+import java.util.UUID;
+
+import exceptions.InvalidIdentifierException;
+
+/**
+ * Identificador de um pedido de pagamento, guardado como os dois inteiros de
+ * 64 bits de um UUID aleatorio. Em memoria os pedidos sao indexados e
+ * comparados por estes dois valores; a forma textual do UUID so e usada nas
+ * respostas aos clientes, nos comandos que estes enviam e nas linhas dos
+ * ficheiros, que continuam no formato anterior.
+ *
+ * @author grupo 36.
+ *
+ */
+public final class RequestID {
+
+	private static final int TEXT_LENGTH = 36;
+
+	private final long high;
+	private final long low;
+
+	private RequestID(long high, long low) {
+		this.high = high;
+		this.low = low;
+	}
+
+	/**
+	 * @return Um novo identificador aleatorio.
+	 */
+	public static RequestID random() {
+		UUID uuid = UUID.randomUUID();
+		return new RequestID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+	}
+
+	/**
+	 * Converte a forma textual de um identificador.
+	 *
+	 * @param text O identificador, no formato de um UUID.
+	 * @return O identificador.
+	 * @throws InvalidIdentifierException caso o texto nao seja um identificador
+	 *                                    valido.
+	 */
+	public static RequestID parse(String text) throws InvalidIdentifierException {
+		if (text.length() == TEXT_LENGTH) {
+			try {
+				UUID uuid = UUID.fromString(text);
+				return new RequestID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		throw new InvalidIdentifierException("O identificador nao existe.");
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof RequestID)) {
+			return false;
+		}
+		RequestID other = (RequestID) obj;
+		return high == other.high && low == other.low;
+	}
+
+	@Override
+	public int hashCode() {
+		long bits = high ^ low;
+		return (int) (bits >> 32) ^ (int) bits;
+	}
+
+	/**
+	 * @return A forma textual do identificador, no formato de um UUID.
+	 */
+	@Override
+	public String toString() {
+		return new UUID(high, low).toString();
+	}
+
+}
@@ -0,0 +1,257 @@
+package protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.security.SignedObject;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Codificacao binaria compacta das tramas (versao 2 do protocolo com tramas).
+ * Cada mensagem e um valor tipado: um byte com o codigo do tipo seguido dos
+ * seus campos. Os tamanhos sao codificados como inteiros de tamanho variavel,
+ * os certificados seguem na sua forma X.509, as transacoes assinadas seguem
+ * como a transacao, os bytes da assinatura e o algoritmo, as listas seguem
+ * como o numero de elementos seguido de cada elemento, e as partes de um
+ * Report seguem como o tipo, a indicacao de ultima parte e as entradas. Uma
+ * trama pode ter no maximo MAX_LIST_DEPTH listas encaixadas.
+ *
+ * @author grupo 36.
+ *
+ */
+public class BinaryCodec implements MessageCodec {
+
+	private static final byte NULL = 0;
+	private static final byte TRUE = 1;
+	private static final byte FALSE = 2;
+	private static final byte INT = 3;
+	private static final byte LONG = 4;
+	private static final byte STRING = 5;
+	private static final byte BYTES = 6;
+	private static final byte CERTIFICATE = 7;
+	private static final byte SIGNED = 8;
+	private static final byte LIST = 9;
+	private static final byte REPORT = 10;
+	// os batches usam um nivel de listas; um segundo nivel fica de margem
+	static final int MAX_LIST_DEPTH = 2;
+
+	private final CertificateFactory certificateFactory;
+
+	public BinaryCodec() {
+		try {
+			certificateFactory = CertificateFactory.getInstance("X.509");
+		} catch (CertificateException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public byte[] encode(Object message) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		write(out, message);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public Object decode(byte[] frame) throws IOException, ClassNotFoundException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+		return read(in, 0);
+	}
+
+	private void write(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof Boolean) {
+			out.writeByte((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof Integer) {
+			out.writeByte(INT);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof byte[]) {
+			out.writeByte(BYTES);
+			writeBytes(out, (byte[]) value);
+		} else if (value instanceof Certificate) {
+			out.writeByte(CERTIFICATE);
+			try {
+				writeBytes(out, ((Certificate) value).getEncoded());
+			} catch (CertificateEncodingException e) {
+				throw new IOException(e);
+			}
+		} else if (value instanceof SignedObject || value instanceof SignedTransaction) {
+			SignedTransaction st = null;
+			try {
+				st = SignedTransaction.from(value);
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+			out.writeByte(SIGNED);
+			writeString(out, st.getTransaction());
+			writeBytes(out, st.getSignature());
+			writeString(out, st.getAlgorithm());
+		} else if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			out.writeByte(LIST);
+			writeVarInt(out, list.size());
+			for (Object element : list) {
+				write(out, element);
+			}
+		} else if (value instanceof Report) {
+			Report report = (Report) value;
+			out.writeByte(REPORT);
+			out.writeByte(report.getKind().ordinal());
+			out.writeBoolean(report.isLast());
+			writeVarInt(out, report.getEntries().size());
+			for (Report.Entry entry : report.getEntries()) {
+				writeString(out, entry.getKey());
+				writeVarInt(out, entry.getValues().size());
+				for (String v : entry.getValues()) {
+					writeString(out, v);
+				}
+			}
+		} else {
+			throw new NotSerializableException(value.getClass().getName());
+		}
+	}
+
+	/**
+	 * @param depth O numero de listas em que o valor esta contido.
+	 */
+	private Object read(DataInputStream in, int depth) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case NULL:
+			return null;
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case INT:
+			return in.readInt();
+		case LONG:
+			return in.readLong();
+		case STRING:
+			return readString(in);
+		case BYTES:
+			return readBytes(in);
+		case CERTIFICATE:
+			byte[] encoded = readBytes(in);
+			try {
+				synchronized (certificateFactory) {
+					return certificateFactory.generateCertificate(new ByteArrayInputStream(encoded));
+				}
+			} catch (CertificateException e) {
+				throw new IOException(e);
+			}
+		case SIGNED:
+			String transaction = readString(in);
+			byte[] signature = readBytes(in);
+			return new SignedTransaction(transaction, signature, readString(in));
+		case LIST:
+			// sem limite, uma trama com muitas listas encaixadas esgotaria a pilha
+			if (depth == MAX_LIST_DEPTH) {
+				throw new StreamCorruptedException("Listas encaixadas em demasia.");
+			}
+			int size = readVarInt(in);
+			// cada elemento ocupa pelo menos um byte
+			if (size < 0 || size > in.available()) {
+				throw new StreamCorruptedException("Tamanho de lista invalido: " + size);
+			}
+			List<Object> list = new ArrayList<Object>(size);
+			for (int i = 0; i < size; i++) {
+				list.add(read(in, depth + 1));
+			}
+			return list;
+		case REPORT:
+			return readReport(in);
+		default:
+			throw new StreamCorruptedException("Tipo de valor desconhecido: " + type);
+		}
+	}
+
+	private static Report readReport(DataInputStream in) throws IOException {
+		int kind = in.readUnsignedByte();
+		if (kind >= Report.Kind.values().length) {
+			throw new StreamCorruptedException("Tipo de relatorio desconhecido: " + kind);
+		}
+		boolean last = in.readBoolean();
+		int size = readVarInt(in);
+		if (size < 0 || size > in.available()) {
+			throw new StreamCorruptedException("Tamanho de relatorio invalido: " + size);
+		}
+		List<Report.Entry> entries = new ArrayList<Report.Entry>(size);
+		for (int i = 0; i < size; i++) {
+			String key = readString(in);
+			int count = readVarInt(in);
+			if (count < 0 || count > in.available()) {
+				throw new StreamCorruptedException("Tamanho de entrada invalido: " + count);
+			}
+			List<String> values = new ArrayList<String>(count);
+			for (int j = 0; j < count; j++) {
+				values.add(readString(in));
+			}
+			entries.add(new Report.Entry(key, values));
+		}
+		return new Report(Report.Kind.values()[kind], entries, last);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return new String(readBytes(in), StandardCharsets.UTF_8);
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+		writeVarInt(out, value.length);
+		out.write(value);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = readVarInt(in);
+		if (length < 0 || length > in.available()) {
+			throw new StreamCorruptedException("Tamanho de campo invalido: " + length);
+		}
+		byte[] value = new byte[length];
+		in.readFully(value);
+		return value;
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new StreamCorruptedException("Inteiro de tamanho variavel invalido.");
+	}
+
+}
@@ -0,0 +1,49 @@
+package protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Canal de mensagens do protocolo com tramas sobre streams bloqueantes. Cada
+ * mensagem segue numa trama precedida pelo seu tamanho (4 bytes).
+ *
+ * @author grupo 36.
+ *
+ */
+public class FramedStreamChannel implements MessageChannel {
+
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final MessageCodec codec;
+
+	public FramedStreamChannel(DataInputStream in, DataOutputStream out, MessageCodec codec) {
+		this.in = in;
+		this.out = out;
+		this.codec = codec;
+	}
+
+	@Override
+	public Object readObject() throws IOException, ClassNotFoundException {
+		int length = in.readInt();
+		Protocol.checkFrameLength(length);
+		byte[] frame = new byte[length];
+		in.readFully(frame);
+		return codec.decode(frame);
+	}
+
+	@Override
+	public synchronized void writeObject(Object obj) throws IOException {
+		byte[] frame = codec.encode(obj);
+		out.writeInt(frame.length);
+		out.write(frame);
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+		out.close();
+	}
+
+}
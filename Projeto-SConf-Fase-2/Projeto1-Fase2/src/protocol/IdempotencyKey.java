@@ -0,0 +1,94 @@
+package protocol;
+
+/**
+ * Chave de idempotencia opcional dos comandos que movimentam dinheiro
+ * (makepayment, payrequest e confirmQRcode). O cliente indica a chave antes do
+ * comando ("@chave makepayment user2 10") e acrescenta-a no fim da transacao
+ * que assina ("makepayment user1 user2 10 @chave"), para que fique registada
+ * na blockchain. Um comando reenviado com a mesma chave nao volta a ser
+ * executado: o servidor devolve o resultado original.
+ *
+ * @author grupo 36.
+ *
+ */
+public final class IdempotencyKey {
+
+	public static final String PREFIX = "@";
+	public static final int MAX_LENGTH = 64;
+
+	private IdempotencyKey() {
+	}
+
+	/**
+	 * @param message Um comando.
+	 * @return A chave indicada antes do comando, ou null caso nao exista.
+	 */
+	public static String of(String message) {
+		if (!message.startsWith(PREFIX)) {
+			return null;
+		}
+		int end = message.indexOf(' ');
+		return message.substring(PREFIX.length(), end < 0 ? message.length() : end);
+	}
+
+	/**
+	 * @param message Um comando.
+	 * @return O comando sem a chave.
+	 */
+	public static String strip(String message) {
+		if (!message.startsWith(PREFIX)) {
+			return message;
+		}
+		int end = message.indexOf(' ');
+		return end < 0 ? "" : message.substring(end + 1);
+	}
+
+	public static boolean isValid(String key) {
+		return key.length() > 0 && key.length() <= MAX_LENGTH && key.indexOf('\n') < 0 && key.indexOf(' ') < 0;
+	}
+
+	/**
+	 * Acrescenta a chave no fim de uma transacao.
+	 *
+	 * @param transaction A transacao.
+	 * @param key         A chave, ou null.
+	 * @return A transacao com a chave.
+	 */
+	public static String tag(String transaction, String key) {
+		return key == null ? transaction : transaction + " " + PREFIX + key;
+	}
+
+	/**
+	 * @param transaction Uma transacao registada na blockchain.
+	 * @return A chave no fim da transacao, ou null caso nao exista.
+	 */
+	public static String ofTransaction(String transaction) {
+		int start = tagStart(transaction);
+		return start < 0 ? null : transaction.substring(start + 1 + PREFIX.length());
+	}
+
+	/**
+	 * @param transaction Uma transacao registada na blockchain.
+	 * @return A transacao sem a chave.
+	 */
+	public static String untag(String transaction) {
+		int start = tagStart(transaction);
+		return start < 0 ? transaction : transaction.substring(0, start);
+	}
+
+	/**
+	 * Procura a chave no ultimo termo da transacao. Os identificadores dos
+	 * usuarios nao podem comecar pelo prefixo, pelo que um ultimo termo com o
+	 * prefixo e sempre uma chave; um termo anterior nunca o e.
+	 *
+	 * @return A posicao do espaco antes da chave, ou -1 caso nao exista.
+	 */
+	private static int tagStart(String transaction) {
+		int start = transaction.lastIndexOf(' ');
+		if (start < 0 || !transaction.startsWith(PREFIX, start + 1)) {
+			return -1;
+		}
+		return isValid(transaction.substring(start + 1 + PREFIX.length())) ? start : -1;
+	}
+
+}
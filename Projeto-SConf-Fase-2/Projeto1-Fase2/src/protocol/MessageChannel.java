@@ -0,0 +1,41 @@
+package protocol;
+
+import java.io.IOException;
+
+/**
+ * Interface que representa um canal de mensagens entre o cliente e o servidor,
+ * independente do protocolo e do transporte utilizados, que permite enviar e
+ * receber mensagens.
+ *
+ * @author grupo 36.
+ *
+ */
+public interface MessageChannel extends MessageSender {
+
+	/**
+	 * Le a proxima mensagem do canal, bloqueando ate esta estar disponivel.
+	 *
+	 * @return A mensagem recebida.
+	 * @throws IOException            caso ocorra um erro de comunicacao ou o
+	 *                                canal seja fechado.
+	 * @throws ClassNotFoundException caso a mensagem nao possa ser reconstruida.
+	 */
+	Object readObject() throws IOException, ClassNotFoundException;
+
+	/**
+	 * @return true caso o canal transporte respostas estruturadas (Report),
+	 *         false caso o cliente espere a resposta ja formatada.
+	 */
+	default boolean supportsReports() {
+		return true;
+	}
+
+	/**
+	 * @return true caso uma resposta estruturada possa ser enviada em varias
+	 *         partes, false caso tenha de seguir inteira numa so mensagem.
+	 */
+	default boolean supportsChunkedReports() {
+		return true;
+	}
+
+}
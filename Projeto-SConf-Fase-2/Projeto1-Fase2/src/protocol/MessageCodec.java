@@ -0,0 +1,18 @@
+package protocol;
+
+import java.io.IOException;
+
+/**
+ * Interface que representa a codificacao de uma mensagem no conteudo de uma
+ * trama do protocolo com tramas.
+ *
+ * @author grupo 36.
+ *
+ */
+public interface MessageCodec {
+
+	byte[] encode(Object message) throws IOException;
+
+	Object decode(byte[] frame) throws IOException, ClassNotFoundException;
+
+}
@@ -0,0 +1,24 @@
+package protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Interface que representa o lado de envio de um canal de mensagens, usada
+ * quando as respostas sao lidas por outra via (por exemplo, no modo
+ * pipelined, em que chegam por qualquer ordem).
+ *
+ * @author grupo 36.
+ *
+ */
+public interface MessageSender extends Closeable {
+
+	/**
+	 * Envia uma mensagem pelo canal.
+	 *
+	 * @param obj A mensagem a enviar.
+	 * @throws IOException caso ocorra um erro de comunicacao.
+	 */
+	void writeObject(Object obj) throws IOException;
+
+}
@@ -0,0 +1,50 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Canal de mensagens do protocolo original, em que todas as mensagens seguem
+ * numa unica stream de serializacao Java.
+ *
+ * @author grupo 36.
+ *
+ */
+public class ObjectStreamChannel implements MessageChannel {
+
+	private final ObjectInputStream in;
+	private final ObjectOutputStream out;
+
+	public ObjectStreamChannel(ObjectInputStream in, ObjectOutputStream out) {
+		this.in = in;
+		this.out = out;
+	}
+
+	@Override
+	public Object readObject() throws IOException, ClassNotFoundException {
+		return in.readObject();
+	}
+
+	@Override
+	public void writeObject(Object obj) throws IOException {
+		out.writeObject(obj);
+		out.flush();
+	}
+
+	/**
+	 * @return false: os clientes do protocolo original recebem as respostas ja
+	 *         formatadas.
+	 */
+	@Override
+	public boolean supportsReports() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+		out.close();
+	}
+
+}
@@ -0,0 +1,128 @@
+package protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * Canal do modo pipelined sobre streams bloqueantes. Cada trama contem o id de
+ * correlacao do comando a que pertence (4 bytes) seguido da mensagem, o que
+ * permite ter varios comandos em curso na mesma conexao.
+ *
+ * Enquanto canal de mensagens, usa o id CONTROL_ID, reservado para a
+ * autenticacao, que decorre sempre antes de qualquer comando.
+ *
+ * @author grupo 36.
+ *
+ */
+public class PipelinedStreamChannel implements MessageChannel {
+
+	public static final int CONTROL_ID = 0;
+
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final MessageCodec codec;
+
+	public PipelinedStreamChannel(DataInputStream in, DataOutputStream out, MessageCodec codec) {
+		this.in = in;
+		this.out = out;
+		this.codec = codec;
+	}
+
+	/**
+	 * Le a proxima trama, de qualquer comando.
+	 *
+	 * @return A trama recebida.
+	 */
+	public Frame read() throws IOException, ClassNotFoundException {
+		int length = in.readInt();
+		Protocol.checkFrameLength(length);
+		if (length < 4) {
+			throw new StreamCorruptedException("Trama sem id de correlacao.");
+		}
+		int id = in.readInt();
+		byte[] payload = new byte[length - 4];
+		in.readFully(payload);
+		return new Frame(id, codec.decode(payload));
+	}
+
+	/**
+	 * Envia uma mensagem do comando identificado.
+	 *
+	 * @param id      O id de correlacao do comando.
+	 * @param message A mensagem a enviar.
+	 */
+	public synchronized void write(int id, Object message) throws IOException {
+		byte[] payload = codec.encode(message);
+		out.writeInt(payload.length + 4);
+		out.writeInt(id);
+		out.write(payload);
+		out.flush();
+	}
+
+	/**
+	 * Obtem um canal que envia as mensagens com o id indicado. O canal so
+	 * envia: as respostas sao lidas com read(), uma vez que podem chegar por
+	 * qualquer ordem.
+	 *
+	 * @param id O id de correlacao do comando.
+	 * @return O canal de envio do comando.
+	 */
+	public MessageSender sender(int id) {
+		return new MessageSender() {
+			@Override
+			public void writeObject(Object obj) throws IOException {
+				write(id, obj);
+			}
+
+			@Override
+			public void close() throws IOException {
+				PipelinedStreamChannel.this.close();
+			}
+		};
+	}
+
+	@Override
+	public Object readObject() throws IOException, ClassNotFoundException {
+		Frame frame = read();
+		if (frame.getId() != CONTROL_ID) {
+			throw new StreamCorruptedException("Trama inesperada do comando " + frame.getId());
+		}
+		return frame.getMessage();
+	}
+
+	@Override
+	public void writeObject(Object obj) throws IOException {
+		write(CONTROL_ID, obj);
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+		out.close();
+	}
+
+	/**
+	 * Trama recebida no modo pipelined.
+	 */
+	public static class Frame {
+
+		private final int id;
+		private final Object message;
+
+		public Frame(int id, Object message) {
+			this.id = id;
+			this.message = message;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public Object getMessage() {
+			return message;
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+package protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * Classe responsavel pela negociacao do protocolo no inicio de cada conexao.
+ *
+ * O servidor envia sempre o cabecalho de uma stream de serializacao Java
+ * (0xACED0005), para manter a compatibilidade com os clientes do protocolo
+ * original. O cliente responde com o seu proprio cabecalho (protocolo
+ * original) ou com a saudacao "TRKS" seguida da versao mais recente que
+ * suporta do protocolo com tramas. O servidor responde com a mesma saudacao e
+ * a versao escolhida, a mais recente suportada por ambos: a versao 1 codifica
+ * as tramas com serializacao Java e a versao 2 com a codificacao binaria. O
+ * cliente pode ainda pedir o modo pipelined (bit PIPELINING da versao), em que
+ * cada trama e precedida do id de correlacao do comando a que pertence.
+ *
+ * @author grupo 36.
+ *
+ */
+public final class Protocol {
+
+	public static final int STREAM_HEADER = 0xACED0005;
+	public static final int HELLO_MAGIC = 0x54524B53;
+	public static final int STREAM_VERSION = 0;
+	public static final int SERIALIZATION_VERSION = 1;
+	public static final int BINARY_VERSION = 2;
+	public static final int PIPELINING = 0x100;
+	private static final int VERSION_MASK = 0xFF;
+	public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+	private Protocol() {
+	}
+
+	/**
+	 * Escolhe a versao do protocolo com tramas a usar numa conexao.
+	 *
+	 * @param requested A versao mais recente suportada pelo cliente, com os
+	 *                  modos pedidos.
+	 * @return A versao escolhida, com os modos aceites, ou 0 caso nao haja
+	 *         nenhuma versao em comum.
+	 */
+	public static int negotiate(int requested) {
+		int version = requested & VERSION_MASK;
+		if (version < SERIALIZATION_VERSION) {
+			return 0;
+		}
+		return Math.min(version, BINARY_VERSION) | (requested & PIPELINING);
+	}
+
+	public static int versionOf(int negotiated) {
+		return negotiated & VERSION_MASK;
+	}
+
+	public static boolean isPipelined(int negotiated) {
+		return (negotiated & PIPELINING) != 0;
+	}
+
+	public static MessageCodec codecFor(int negotiated) {
+		return versionOf(negotiated) == BINARY_VERSION ? new BinaryCodec() : new SerializationCodec();
+	}
+
+	/**
+	 * Valida o tamanho anunciado de uma trama.
+	 *
+	 * @param length O tamanho anunciado.
+	 * @throws IOException caso o tamanho seja negativo ou exceda o maximo.
+	 */
+	public static void checkFrameLength(int length) throws IOException {
+		if (length < 0 || length > MAX_FRAME_LENGTH) {
+			throw new IOException("Tamanho de trama invalido: " + length);
+		}
+	}
+
+	/**
+	 * Negoceia o protocolo do lado do cliente.
+	 *
+	 * @param in        A stream de entrada da conexao.
+	 * @param out       A stream de saida da conexao.
+	 * @param version   A versao mais recente pretendida do protocolo com tramas,
+	 *                  ou STREAM_VERSION para o protocolo original.
+	 * @param pipelined true para pedir o modo pipelined.
+	 * @return O canal de mensagens negociado; um PipelinedStreamChannel caso o
+	 *         servidor aceite o modo pipelined.
+	 * @throws IOException caso o servidor nao suporte nenhuma versao pedida.
+	 */
+	public static MessageChannel connect(InputStream in, OutputStream out, int version, boolean pipelined)
+			throws IOException {
+		if (version == STREAM_VERSION) {
+			ObjectInputStream ois = new ObjectInputStream(in);
+			ObjectOutputStream oos = new ObjectOutputStream(out);
+			return new ObjectStreamChannel(ois, oos);
+		}
+
+		DataInputStream din = new DataInputStream(new BufferedInputStream(in));
+		DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+		if (din.readInt() != STREAM_HEADER) {
+			throw new IOException("Cabecalho do servidor invalido.");
+		}
+		dout.writeInt(HELLO_MAGIC);
+		dout.writeInt(pipelined ? version | PIPELINING : version);
+		dout.flush();
+		int magic = din.readInt();
+		int accepted = din.readInt();
+		if (magic != HELLO_MAGIC || versionOf(accepted) < SERIALIZATION_VERSION || versionOf(accepted) > version) {
+			throw new IOException("O servidor nao suporta o protocolo com tramas.");
+		}
+		if (isPipelined(accepted)) {
+			return new PipelinedStreamChannel(din, dout, codecFor(accepted));
+		}
+		return new FramedStreamChannel(din, dout, codecFor(accepted));
+	}
+
+	/**
+	 * Negoceia o protocolo do lado do servidor, aceitando clientes de ambos os
+	 * protocolos.
+	 *
+	 * @param in  A stream de entrada da conexao.
+	 * @param out A stream de saida da conexao.
+	 * @return O canal de mensagens negociado; um PipelinedStreamChannel caso o
+	 *         cliente peca o modo pipelined.
+	 * @throws IOException caso o cliente peca uma versao nao suportada.
+	 */
+	public static MessageChannel accept(InputStream in, OutputStream out) throws IOException {
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.flush();
+
+		PushbackInputStream pin = new PushbackInputStream(in, 4);
+		DataInputStream din = new DataInputStream(pin);
+		byte[] head = new byte[4];
+		din.readFully(head);
+		int magic = ((head[0] & 0xFF) << 24) | ((head[1] & 0xFF) << 16) | ((head[2] & 0xFF) << 8) | (head[3] & 0xFF);
+
+		if (magic != HELLO_MAGIC) {
+			pin.unread(head);
+			return new ObjectStreamChannel(new ObjectInputStream(pin), oos);
+		}
+
+		int requested = din.readInt();
+		int version = negotiate(requested);
+		DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+		dout.writeInt(HELLO_MAGIC);
+		dout.writeInt(version);
+		dout.flush();
+		if (version == 0) {
+			throw new IOException("Versao de protocolo nao suportada: " + requested);
+		}
+		din = new DataInputStream(new BufferedInputStream(pin));
+		if (isPipelined(version)) {
+			return new PipelinedStreamChannel(din, dout, codecFor(version));
+		}
+		return new FramedStreamChannel(din, dout, codecFor(version));
+	}
+
+}
@@ -0,0 +1,220 @@
+package protocol;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resposta estruturada dos comandos de listagem (groups, statuspayments e
+ * history): uma lista de entradas, cada uma com uma chave e a lista de
+ * valores associados. Uma resposta grande e enviada em varias partes
+ * (split), que o cliente junta (merge) ate receber a ultima, sendo formatada
+ * so do lado do cliente.
+ *
+ * @author grupo 36.
+ *
+ */
+public final class Report implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Numero maximo de valores enviados em cada parte de uma resposta.
+	 */
+	public static final int CHUNK_SIZE = 1024;
+
+	public static final String OWNER = "dono";
+	public static final String MEMBER = "participante";
+
+	/**
+	 * O comando a que a resposta se refere, que determina a sua formatacao.
+	 */
+	public enum Kind {
+		GROUPS, PAYMENT_STATUS, HISTORY
+	}
+
+	private final Kind kind;
+	private final List<Entry> entries;
+	private final boolean last;
+
+	public Report(Kind kind) {
+		this(kind, new ArrayList<Entry>(), true);
+	}
+
+	public Report(Kind kind, List<Entry> entries, boolean last) {
+		this.kind = kind;
+		this.entries = entries;
+		this.last = last;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * @return true caso seja a ultima parte da resposta.
+	 */
+	public boolean isLast() {
+		return last;
+	}
+
+	/**
+	 * Acrescenta uma entrada a resposta.
+	 *
+	 * @param key    A chave da entrada.
+	 * @param values Os valores da entrada.
+	 * @return Esta resposta.
+	 */
+	public Report add(String key, List<String> values) {
+		entries.add(new Entry(key, new ArrayList<String>(values)));
+		return this;
+	}
+
+	/**
+	 * Divide a resposta em partes com no maximo maxValues valores cada. Uma
+	 * entrada maior que uma parte continua na parte seguinte com a mesma chave.
+	 * So a ultima parte e marcada como tal.
+	 *
+	 * @param maxValues O numero maximo de valores de cada parte.
+	 * @return As partes da resposta, pela ordem em que devem ser enviadas.
+	 */
+	public List<Report> split(int maxValues) {
+		List<Report> chunks = new ArrayList<Report>();
+		List<Entry> current = new ArrayList<Entry>();
+		int size = 0;
+		for (Entry entry : entries) {
+			int from = 0;
+			do {
+				if (size == maxValues) {
+					chunks.add(new Report(kind, current, false));
+					current = new ArrayList<Entry>();
+					size = 0;
+				}
+				int to = Math.min(entry.values.size(), from + maxValues - size);
+				current.add(new Entry(entry.key, new ArrayList<String>(entry.values.subList(from, to))));
+				size += to - from;
+				from = to;
+			} while (from < entry.values.size());
+		}
+		chunks.add(new Report(kind, current, true));
+		return chunks;
+	}
+
+	/**
+	 * Junta a esta resposta a parte seguinte, recebida do servidor. Entradas
+	 * consecutivas com a mesma chave sao juntas numa so.
+	 *
+	 * @param next A parte seguinte.
+	 * @return A resposta com ambas as partes.
+	 */
+	public Report merge(Report next) {
+		List<Entry> merged = new ArrayList<Entry>(entries);
+		for (Entry entry : next.entries) {
+			Entry previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (previous != null && previous.key.equals(entry.key)) {
+				List<String> values = new ArrayList<String>(previous.values);
+				values.addAll(entry.values);
+				merged.set(merged.size() - 1, new Entry(previous.key, values));
+			} else {
+				merged.add(entry);
+			}
+		}
+		return new Report(kind, merged, next.last);
+	}
+
+	/**
+	 * @param key A chave.
+	 * @return Os valores da entrada com a chave indicada, ou uma lista vazia.
+	 */
+	public List<String> get(String key) {
+		List<String> values = new ArrayList<String>();
+		for (Entry entry : entries) {
+			if (entry.key.equals(key)) {
+				values.addAll(entry.values);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Formata a resposta para ser apresentada ao usuario.
+	 *
+	 * @return O texto da resposta.
+	 */
+	public String format() {
+		String ls = System.lineSeparator();
+		StringBuilder sb = new StringBuilder();
+		switch (kind) {
+		case GROUPS:
+			sb.append("Grupos (Dono): ");
+			appendLines(sb, get(OWNER), "Nao e dono de nenhum grupo.", ls);
+			sb.append(ls).append(ls).append("Grupos (Participante): ");
+			appendLines(sb, get(MEMBER), "Nao e membro de nenhum grupo.", ls);
+			sb.append(ls);
+			break;
+		case PAYMENT_STATUS:
+			if (entries.isEmpty()) {
+				sb.append("Vazio.");
+			}
+			for (Entry entry : entries) {
+				sb.append("ID do Pedido: ").append(entry.key).append(ls);
+				if (entry.values.isEmpty()) {
+					sb.append("vazio").append(ls);
+				}
+				for (String memberID : entry.values) {
+					sb.append(memberID).append(ls);
+				}
+			}
+			break;
+		case HISTORY:
+			for (Entry entry : entries) {
+				sb.append("ID do grupo: ").append(entry.key).append(ls);
+				sb.append("Lista de pagamentos realizados do grupo ").append(entry.key).append(": ").append(ls);
+				for (String paymentID : entry.values) {
+					sb.append(paymentID).append(ls);
+				}
+			}
+			break;
+		}
+		return sb.toString();
+	}
+
+	private static void appendLines(StringBuilder sb, List<String> values, String empty, String ls) {
+		if (values.isEmpty()) {
+			sb.append(empty);
+		}
+		for (String value : values) {
+			sb.append(ls).append(value);
+		}
+	}
+
+	/**
+	 * Entrada de uma resposta: uma chave e os valores associados.
+	 */
+	public static final class Entry implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String key;
+		private final List<String> values;
+
+		public Entry(String key, List<String> values) {
+			this.key = key;
+			this.values = values;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public List<String> getValues() {
+			return Collections.unmodifiableList(values);
+		}
+	}
+
+}
@@ -0,0 +1,34 @@
+package protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Codificacao das tramas com serializacao Java (versao 1 do protocolo com
+ * tramas). Cada trama contem uma stream de serializacao independente.
+ *
+ * @author grupo 36.
+ *
+ */
+public class SerializationCodec implements MessageCodec {
+
+	@Override
+	public byte[] encode(Object message) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+			oos.writeObject(message);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public Object decode(byte[] frame) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(frame))) {
+			return ois.readObject();
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+package protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignedObject;
+
+/**
+ * Transacao assinada por um cliente. A assinatura e feita sobre a forma
+ * serializada da transacao, tal como num SignedObject, pelo que uma transacao
+ * recebida num SignedObject ou no protocolo binario e verificada da mesma
+ * forma e produz o mesmo registo na blockchain.
+ *
+ * @author grupo 36.
+ *
+ */
+public final class SignedTransaction {
+
+	private final String transaction;
+	private final byte[] signature;
+	private final String algorithm;
+
+	public SignedTransaction(String transaction, byte[] signature, String algorithm) {
+		this.transaction = transaction;
+		this.signature = signature;
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Obtem a transacao assinada contida numa mensagem recebida.
+	 *
+	 * @param message Um SignedObject (protocolo com serializacao Java) ou uma
+	 *                SignedTransaction (protocolo binario).
+	 * @return A transacao assinada.
+	 * @throws ClassCastException caso a mensagem nao seja uma transacao assinada.
+	 */
+	public static SignedTransaction from(Object message) throws IOException, ClassNotFoundException {
+		if (message instanceof SignedTransaction) {
+			return (SignedTransaction) message;
+		}
+		SignedObject so = (SignedObject) message;
+		return new SignedTransaction((String) so.getObject(), so.getSignature(), so.getAlgorithm());
+	}
+
+	public String getTransaction() {
+		return transaction;
+	}
+
+	public byte[] getSignature() {
+		return signature;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Verifica a assinatura da transacao, tal como SignedObject.verify.
+	 *
+	 * @param publicKey A chave publica de quem assinou.
+	 * @param engine    O motor de verificacao a usar.
+	 * @return true caso a assinatura seja valida, false caso contrario.
+	 */
+	public boolean verify(PublicKey publicKey, Signature engine) throws GeneralSecurityException, IOException {
+		engine.initVerify(publicKey);
+		engine.update(serializedForm());
+		return engine.verify(signature);
+	}
+
+	private byte[] serializedForm() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(transaction.length() + 16);
+		try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+			oos.writeObject(transaction);
+		}
+		return bytes.toByteArray();
+	}
+
+}
@@ -0,0 +1,131 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import protocol.IdempotencyKey;
+import protocol.MessageChannel;
+
+/**
+ * Comando que executa varios subcomandos, recebidos numa unica mensagem, pela
+ * ordem recebida. A mensagem contem o certificado do usuario (opcional, nao e
+ * usado), seguido de cada subcomando e, no caso dos subcomandos assinados, da
+ * respetiva transacao assinada.
+ *
+ * @author grupo 36.
+ *
+ */
+final class BatchCommand extends Command<List<?>> {
+
+	BatchCommand() {
+		super("batch", null, 0);
+	}
+
+	@Override
+	boolean isAllowedInBatch() {
+		return false;
+	}
+
+	@Override
+	void receive(CommandContext context, int argumentCount) throws IOException, ClassNotFoundException {
+		// os subcomandos seguem sempre numa unica mensagem
+		context.setPayload(context.getChannel().readObject());
+	}
+
+	@Override
+	List<?> parse(String[] message) {
+		return null;
+	}
+
+	/**
+	 * @return A lista com a resposta a cada subcomando, ou Boolean.FALSE caso a
+	 *         mensagem recebida nao seja uma lista. Um subcomando que nao seja
+	 *         uma String, ou um subcomando assinado sem transacao, tem como
+	 *         resposta Boolean.FALSE.
+	 */
+	@Override
+	Object execute(CommandContext context, List<?> request) throws IOException, ClassNotFoundException {
+		Object payload = context.getPayload();
+		if (!(payload instanceof List)) {
+			return Boolean.FALSE;
+		}
+		List<?> batch = (List<?>) payload;
+		List<Object> responses = new ArrayList<Object>();
+		if (batch.isEmpty()) {
+			// sem certificado nem subcomandos
+			return responses;
+		}
+
+		CommandRegistry registry = CommandRegistry.getDefault();
+		Object certificate = batch.get(0);
+		int i = 1;
+		while (i < batch.size()) {
+			Object next = batch.get(i++);
+			if (!(next instanceof String)) {
+				responses.add(Boolean.FALSE);
+				continue;
+			}
+
+			String message = (String) next;
+			String[] splittedMessage = IdempotencyKey.strip(message).split(" ", 3);
+			Command<?> command = registry.get(splittedMessage[0]);
+			BatchChannel subChannel = new BatchChannel();
+			if (command != null && command.isSigned() && splittedMessage.length - 1 == command.getArgumentCount()) {
+				Object transaction = i < batch.size() ? batch.get(i++) : null;
+				if (transaction == null) {
+					// subcomando assinado sem a transacao assinada
+					responses.add(Boolean.FALSE);
+					continue;
+				}
+				subChannel.messages.add(transaction);
+				subChannel.messages.add(certificate);
+			}
+
+			if (command != null && !command.isAllowedInBatch()) {
+				responses.add("Comando nao permitido num batch");
+				continue;
+			}
+			try {
+				responses.add(context.invoke(message, subChannel));
+			} catch (IOException | ClassCastException e) {
+				responses.add(Boolean.FALSE);
+			}
+		}
+		return responses;
+	}
+
+	/**
+	 * Canal usado por um subcomando de um batch: devolve as mensagens do batch
+	 * que lhe pertencem e nao permite enviar mensagens intermedias.
+	 */
+	static final class BatchChannel implements MessageChannel {
+
+		private final List<Object> messages = new ArrayList<Object>();
+		private int next = 0;
+
+		@Override
+		public Object readObject() throws IOException {
+			if (next == messages.size()) {
+				throw new EOFException("Mensagem em falta no batch.");
+			}
+			return messages.get(next++);
+		}
+
+		@Override
+		public void writeObject(Object obj) throws IOException {
+			throw new IOException("Um batch nao admite mensagens intermedias.");
+		}
+
+		@Override
+		public boolean supportsChunkedReports() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package server;
+
+import java.io.IOException;
+
+/**
+ * Classe base dos comandos executados pelo Skeleton. Cada comando converte os
+ * seus argumentos num pedido do tipo R (parse) antes de ser executado
+ * (execute), separando a validacao dos argumentos da logica do comando.
+ *
+ * @author grupo 36.
+ *
+ * @param <R> O tipo do pedido com os argumentos do comando.
+ */
+abstract class Command<R> {
+
+	private final String name;
+	private final String alias;
+	private final int argumentCount;
+
+	/**
+	 * @param name          O nome do comando.
+	 * @param alias         O nome abreviado do comando, ou null.
+	 * @param argumentCount O numero de argumentos do comando.
+	 */
+	Command(String name, String alias, int argumentCount) {
+		this.name = name;
+		this.alias = alias;
+		this.argumentCount = argumentCount;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	String getAlias() {
+		return alias;
+	}
+
+	int getArgumentCount() {
+		return argumentCount;
+	}
+
+	/**
+	 * @return true caso o comando nao altere o estado do servidor, podendo ser
+	 *         executado em simultaneo com outros comandos so de leitura.
+	 */
+	boolean isReadOnly() {
+		return false;
+	}
+
+	/**
+	 * @return true caso o cliente envie uma transacao assinada e o certificado
+	 *         logo apos o comando.
+	 */
+	boolean isSigned() {
+		return false;
+	}
+
+	boolean isAllowedInBatch() {
+		return true;
+	}
+
+	/**
+	 * @return true caso o comando aceite uma chave de idempotencia, sendo o seu
+	 *         resultado guardado para ser devolvido aos pedidos repetidos.
+	 */
+	boolean acceptsIdempotencyKey() {
+		return false;
+	}
+
+	/**
+	 * Le do canal as mensagens que o cliente envia logo apos o comando. E
+	 * chamado antes da validacao dos argumentos, para que um comando rejeitado
+	 * nao deixe mensagens por ler no canal.
+	 *
+	 * @param context       O contexto da execucao.
+	 * @param argumentCount O numero de argumentos recebidos.
+	 */
+	void receive(CommandContext context, int argumentCount) throws IOException, ClassNotFoundException {
+	}
+
+	/**
+	 * Converte os argumentos do comando num pedido.
+	 *
+	 * @param message A mensagem separada por espacos, em que a primeira posicao
+	 *                e o nome do comando. Tem sempre o numero de argumentos do
+	 *                comando.
+	 * @return O pedido.
+	 * @throws IllegalArgumentException caso os argumentos sejam invalidos.
+	 */
+	abstract R parse(String[] message);
+
+	/**
+	 * Executa o comando. As excecoes de dominio lancadas sao devolvidas ao
+	 * cliente como resposta (a sua mensagem), enquanto as excecoes de
+	 * comunicacao sao propagadas.
+	 *
+	 * @param context O contexto da execucao.
+	 * @param request O pedido devolvido por parse.
+	 * @return A resposta a enviar ao cliente.
+	 */
+	abstract Object execute(CommandContext context, R request) throws Exception;
+
+	/**
+	 * Comando seguido de uma transacao assinada pelo cliente, que e lida e
+	 * verificada antes da execucao.
+	 */
+	abstract static class Signed<R> extends Command<R> {
+
+		Signed(String name, String alias, int argumentCount) {
+			super(name, alias, argumentCount);
+		}
+
+		@Override
+		boolean isSigned() {
+			return true;
+		}
+
+		@Override
+		void receive(CommandContext context, int argumentCount) throws IOException, ClassNotFoundException {
+			// o cliente so envia a transacao quando o comando tem os argumentos certos
+			if (argumentCount == getArgumentCount()) {
+				context.receiveSignedTransaction();
+			}
+		}
+	}
+
+}
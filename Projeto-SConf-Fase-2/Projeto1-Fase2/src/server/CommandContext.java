@@ -0,0 +1,198 @@
+package server;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import domain.BankAccount;
+import domain.BankAccountCatalog;
+import domain.BlockChain;
+import domain.GroupCatalog;
+import exceptions.UserNotFoundException;
+import protocol.MessageChannel;
+import protocol.Report;
+import protocol.SignedTransaction;
+import server.Metrics.CommandStats;
+
+/**
+ * Contexto da execucao de um comando: o usuario que o enviou, o estado do
+ * servidor, o canal de onde sao lidas as mensagens seguintes e a transacao
+ * assinada, caso exista. A conta do usuario so e obtida quando necessaria.
+ *
+ * @author grupo 36.
+ *
+ */
+final class CommandContext {
+
+	private final Skeleton<?> skeleton;
+	private final String userID;
+	private final BankAccountCatalog bankCatalog;
+	private final GroupCatalog groupCatalog;
+	private final MessageChannel channel;
+	private final BlockChain blockChain;
+	private final String cipherPass;
+	private final CommandStats stats;
+	private BankAccount userAccount = null;
+	private SignedTransaction transaction = null;
+	private CompletableFuture<Boolean> verification = null;
+	private Object payload = null;
+
+	CommandContext(Skeleton<?> skeleton, String userID, BankAccountCatalog bankCatalog, GroupCatalog groupCatalog,
+			MessageChannel channel, BlockChain blockChain, String cipherPass, CommandStats stats) {
+		this.skeleton = skeleton;
+		this.userID = userID;
+		this.bankCatalog = bankCatalog;
+		this.groupCatalog = groupCatalog;
+		this.channel = channel;
+		this.blockChain = blockChain;
+		this.cipherPass = cipherPass;
+		this.stats = stats;
+	}
+
+	String getUserID() {
+		return userID;
+	}
+
+	BankAccount getUserAccount() throws UserNotFoundException {
+		if (userAccount == null) {
+			userAccount = bankCatalog.getBankAccount(userID);
+		}
+		return userAccount;
+	}
+
+	BankAccountCatalog getBankCatalog() {
+		return bankCatalog;
+	}
+
+	GroupCatalog getGroupCatalog() {
+		return groupCatalog;
+	}
+
+	MessageChannel getChannel() {
+		return channel;
+	}
+
+	String getCipherPass() {
+		return cipherPass;
+	}
+
+	CommandStats getStats() {
+		return stats;
+	}
+
+	Skeleton<?> getSkeleton() {
+		return skeleton;
+	}
+
+	/**
+	 * Le do canal a transacao assinada e o certificado de quem a assinou. O
+	 * certificado e opcional (null) e nao e usado: a assinatura e verificada com
+	 * a chave publica registada do usuario. No modo pipelined, a transacao chega
+	 * com a verificacao da assinatura ja iniciada.
+	 */
+	void receiveSignedTransaction() throws IOException, ClassNotFoundException {
+		Object message = channel.readObject();
+		if (message instanceof SignatureVerifier.Pending) {
+			SignatureVerifier.Pending pending = (SignatureVerifier.Pending) message;
+			transaction = pending.getTransaction();
+			verification = pending.getResult();
+		} else {
+			transaction = SignedTransaction.from(message);
+			verification = null;
+		}
+		channel.readObject();
+	}
+
+	SignedTransaction getTransaction() {
+		return transaction;
+	}
+
+	/**
+	 * @return A mensagem lida por Command.receive, no caso dos comandos que nao
+	 *         recebem uma transacao assinada.
+	 */
+	Object getPayload() {
+		return payload;
+	}
+
+	void setPayload(Object payload) {
+		this.payload = payload;
+	}
+
+	/**
+	 * Verifica a assinatura da transacao recebida com a chave publica registada
+	 * do usuario. A verificacao e feita nas threads do SignatureVerifier, caso
+	 * nao tenha sido ja iniciada quando a transacao foi recebida.
+	 *
+	 * @return true caso a assinatura seja valida, false caso contrario.
+	 */
+	boolean verifyTransaction() {
+		long start = System.nanoTime();
+		try {
+			if (verification == null) {
+				verification = skeleton.getVerifier().verify(cipherPass, userID, transaction);
+			}
+			return verification.join();
+		} finally {
+			stats.phase(Metrics.PHASE_SIGNATURE, start);
+		}
+	}
+
+	/**
+	 * Escreve uma transacao assinada na blockchain e espera que seja guardada
+	 * no disco, juntamente com as transacoes dos outros comandos em curso.
+	 *
+	 * @param signedTransaction A transacao assinada.
+	 * @return true caso a transacao tenha sido guardada, false caso a escrita
+	 *         tenha falhado ou a blockchain ja esteja fechada.
+	 */
+	boolean writeTransaction(SignedTransaction signedTransaction) {
+		long start = System.nanoTime();
+		try {
+			blockChain.writeTransaction(signedTransaction.getTransaction(), signedTransaction.getSignature());
+			return true;
+		} catch (CompletionException e) {
+			stats.error(e.getCause());
+			return false;
+		} finally {
+			stats.phase(Metrics.PHASE_BLOCKCHAIN, start);
+		}
+	}
+
+	/**
+	 * Envia uma resposta estruturada em partes: todas as partes menos a ultima
+	 * sao escritas no canal e a ultima e devolvida como resposta ao comando. Os
+	 * canais sem respostas estruturadas (protocolo original) recebem a resposta
+	 * ja formatada e os canais sem respostas em partes (subcomandos de um batch)
+	 * recebem-na inteira, numa so parte.
+	 *
+	 * @param report A resposta.
+	 * @return A resposta ao comando.
+	 */
+	Object stream(Report report) throws IOException {
+		if (!channel.supportsReports()) {
+			return report.format();
+		} else if (!channel.supportsChunkedReports()) {
+			return report;
+		}
+		List<Report> chunks = report.split(Report.CHUNK_SIZE);
+		for (int i = 0; i < chunks.size() - 1; i++) {
+			channel.writeObject(chunks.get(i));
+		}
+		return chunks.get(chunks.size() - 1);
+	}
+
+	/**
+	 * Executa outro comando em nome do mesmo usuario, sobre o mesmo estado do
+	 * servidor.
+	 *
+	 * @param message O comando.
+	 * @param channel O canal de onde sao lidas as mensagens do comando.
+	 * @return A resposta ao comando.
+	 */
+	Object invoke(String message, MessageChannel channel) throws IOException, ClassNotFoundException {
+		return skeleton.invoke(userID, bankCatalog, groupCatalog, message, channel, blockChain, cipherPass);
+	}
+
+}
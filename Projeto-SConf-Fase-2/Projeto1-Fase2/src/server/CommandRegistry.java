@@ -0,0 +1,61 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registo dos comandos conhecidos pelo servidor, indexados pelo nome e pelo
+ * nome abreviado. Um novo comando so precisa de ser registado em
+ * createDefault().
+ *
+ * @author grupo 36.
+ *
+ */
+final class CommandRegistry {
+
+	private static final CommandRegistry DEFAULT = createDefault();
+
+	private final Map<String, Command<?>> commands = new HashMap<String, Command<?>>();
+
+	/**
+	 * @return O registo com todos os comandos do servidor.
+	 */
+	static CommandRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	private static CommandRegistry createDefault() {
+		CommandRegistry registry = new CommandRegistry();
+		PaymentCommands.registerAll(registry);
+		GroupCommands.registerAll(registry);
+		registry.register(new StatsCommand());
+		registry.register(new BatchCommand());
+		return registry;
+	}
+
+	void register(Command<?> command) {
+		commands.put(command.getName(), command);
+		if (command.getAlias() != null) {
+			commands.put(command.getAlias(), command);
+		}
+	}
+
+	/**
+	 * @param name O nome ou o nome abreviado do comando.
+	 * @return O comando, ou null caso nao exista.
+	 */
+	Command<?> get(String name) {
+		return commands.get(name);
+	}
+
+	/**
+	 * @param message Uma mensagem com um comando e os seus argumentos.
+	 * @return true caso a mensagem seja um comando so de leitura.
+	 */
+	boolean isReadOnly(String message) {
+		int end = message.indexOf(' ');
+		Command<?> command = commands.get(end < 0 ? message : message.substring(0, end));
+		return command != null && command.isReadOnly();
+	}
+
+}
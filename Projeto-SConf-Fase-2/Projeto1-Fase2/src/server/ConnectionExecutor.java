@@ -0,0 +1,69 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Classe responsavel por executar as conexoes aceites pelo servidor segundo o
+ * modo configurado, contabilizando as conexoes ativas e em espera.
+ *
+ * @author grupo 36.
+ *
+ */
+public class ConnectionExecutor {
+
+	private final ThreadPoolExecutor pool;
+	private final AtomicInteger active = new AtomicInteger();
+
+	public ConnectionExecutor(ServerConfig config) {
+		if (config.getConnectionMode() == ServerConfig.ConnectionMode.POOL) {
+			pool = new ThreadPoolExecutor(config.getPoolWorkers(), config.getPoolWorkers(), 60L, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(config.getAdmissionQueue()));
+			pool.allowCoreThreadTimeOut(true);
+		} else {
+			pool = null;
+		}
+	}
+
+	/**
+	 * Executa a conexao numa thread propria ou no conjunto de threads.
+	 *
+	 * @param connection A conexao a executar.
+	 * @return false caso a fila de admissao esteja cheia e a conexao tenha sido
+	 *         rejeitada, true caso contrario.
+	 */
+	public boolean execute(Runnable connection) {
+		Runnable tracked = () -> {
+			active.incrementAndGet();
+			try {
+				connection.run();
+			} finally {
+				active.decrementAndGet();
+			}
+		};
+
+		if (pool == null) {
+			new Thread(tracked).start();
+			return true;
+		}
+
+		try {
+			pool.execute(tracked);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	public int getActiveCount() {
+		return active.get();
+	}
+
+	public int getQueuedCount() {
+		return pool == null ? 0 : pool.getQueue().size();
+	}
+
+}
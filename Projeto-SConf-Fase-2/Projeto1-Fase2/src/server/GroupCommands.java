@@ -0,0 +1,250 @@
+package server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import domain.BankAccount;
+import domain.BankAccount.GroupPaymentReqInformation;
+import domain.Group;
+import domain.GroupCatalog;
+import domain.Money;
+import domain.RequestID;
+import exceptions.GroupExistsException;
+import exceptions.GroupNotFoundException;
+import exceptions.InvalidGroupOwnerException;
+import exceptions.UserAlreadyExistsInGroupException;
+import exceptions.UserNotFoundException;
+import protocol.Report;
+
+/**
+ * Comandos sobre os grupos: criacao, membros e pagamentos divididos pelo
+ * grupo.
+ *
+ * @author grupo 36.
+ *
+ */
+final class GroupCommands {
+
+	private GroupCommands() {
+	}
+
+	static void registerAll(CommandRegistry registry) {
+		registry.register(new NewGroup());
+		registry.register(new AddUser());
+		registry.register(new Groups());
+		registry.register(new DividePayment());
+		registry.register(new StatusPayments());
+		registry.register(new History());
+	}
+
+	/**
+	 * Pedido com um usuario e o grupo a que se refere.
+	 */
+	private static final class Membership {
+
+		private final String userID;
+		private final String groupID;
+
+		Membership(String userID, String groupID) {
+			this.userID = userID;
+			this.groupID = groupID;
+		}
+	}
+
+	/**
+	 * Pedido com um grupo e o valor a dividir pelos seus membros.
+	 */
+	private static final class GroupPayment {
+
+		private final String groupID;
+		private final long amount;
+
+		GroupPayment(String groupID, long amount) {
+			this.groupID = groupID;
+			this.amount = amount;
+		}
+	}
+
+	/**
+	 * Obtem um grupo de que o usuario e dono.
+	 */
+	private static Group getOwnedGroup(CommandContext context, String groupID)
+			throws UserNotFoundException, InvalidGroupOwnerException {
+		Group group = context.getGroupCatalog().getGroup(groupID);
+		if (!group.isOwner(context.getUserID())) {
+			throw new InvalidGroupOwnerException(
+					"O usuario com id \"" + context.getUserID() + "\" nao e dono do grupo \"" + groupID + "\".");
+		}
+		return group;
+	}
+
+	private static final class NewGroup extends Command<String> {
+
+		NewGroup() {
+			super("newgroup", "n", 1);
+		}
+
+		@Override
+		String parse(String[] message) {
+			return message[1];
+		}
+
+		@Override
+		Object execute(CommandContext context, String groupID) throws Exception {
+			context.getUserAccount();
+			GroupCatalog groupCatalog = context.getGroupCatalog();
+			Group group = new Group();
+			group.addMember(context.getUserID());
+			if (!groupCatalog.add(groupID, group)) {
+				throw new GroupExistsException("Ja existe um grupo com id \"" + groupID + "\".");
+			}
+			return Boolean.TRUE;
+		}
+	}
+
+	private static final class AddUser extends Command<Membership> {
+
+		AddUser() {
+			super("addu", "a", 2);
+		}
+
+		@Override
+		Membership parse(String[] message) {
+			return new Membership(message[1], message[2]);
+		}
+
+		@Override
+		Object execute(CommandContext context, Membership request) throws Exception {
+			context.getBankCatalog().getBankAccount(request.userID);
+			GroupCatalog groupCatalog = context.getGroupCatalog();
+			if (!groupCatalog.contains(request.groupID)) {
+				throw new GroupNotFoundException("Nao existe grupo com id \"" + request.groupID + "\".");
+			}
+
+			Group group = groupCatalog.getGroup(request.groupID);
+			if (!group.isOwner(context.getUserID())) {
+				throw new InvalidGroupOwnerException("Apenas o dono do grupo pode adicionar um novo membro.");
+			}
+			if (!groupCatalog.addMember(request.groupID, request.userID)) {
+				throw new UserAlreadyExistsInGroupException("O usuario indicado ja pertence ao grupo.");
+			}
+			return Boolean.TRUE;
+		}
+	}
+
+	private static final class Groups extends Command<Void> {
+
+		Groups() {
+			super("groups", "g", 0);
+		}
+
+		@Override
+		boolean isReadOnly() {
+			return true;
+		}
+
+		@Override
+		Void parse(String[] message) {
+			return null;
+		}
+
+		@Override
+		Object execute(CommandContext context, Void request) throws IOException {
+			String userID = context.getUserID();
+			GroupCatalog groupCatalog = context.getGroupCatalog();
+			List<String> owned = groupCatalog.getOwnedGroups(userID);
+			List<String> member = groupCatalog.getMemberGroups(userID);
+			return context.stream(new Report(Report.Kind.GROUPS).add(Report.OWNER, owned).add(Report.MEMBER, member));
+		}
+	}
+
+	private static final class DividePayment extends Command<GroupPayment> {
+
+		DividePayment() {
+			super("dividepayment", "d", 2);
+		}
+
+		@Override
+		GroupPayment parse(String[] message) {
+			return new GroupPayment(message[1], Money.parse(message[2]));
+		}
+
+		@Override
+		Object execute(CommandContext context, GroupPayment request) throws Exception {
+			GroupCatalog groupCatalog = context.getGroupCatalog();
+			if (!groupCatalog.contains(request.groupID)) {
+				return Boolean.FALSE;
+			}
+
+			Group group = groupCatalog.getGroup(request.groupID);
+			String userID = context.getUserID();
+			if (!group.isOwner(userID)) {
+				return Boolean.FALSE;
+			}
+
+			List<String> groupMembers = group.getGroupMembers();
+			long amountPerID = Money.divide(request.amount, groupMembers.size());
+			long start = System.nanoTime();
+			GroupPaymentReqInformation gpri = context.getUserAccount().addGroupPaymentRequest(request.groupID,
+					request.amount, new ArrayList<String>(groupMembers), new ArrayList<RequestID>(),
+					context.getCipherPass());
+			for (String memberID : groupMembers) {
+				BankAccount memberBA = context.getBankCatalog().getBankAccount(memberID);
+				// associado ao pedido de grupo antes de o membro o poder ver e pagar
+				RequestID uniqueID = RequestID.random();
+				context.getBankCatalog().linkGroupPayment(uniqueID, gpri);
+				memberBA.addIndPaymentRequest(uniqueID, memberID, userID, amountPerID, context.getCipherPass());
+			}
+			context.getStats().phase(Metrics.PHASE_PERSISTENCE, start);
+			return Boolean.TRUE;
+		}
+	}
+
+	private static final class StatusPayments extends Command<String> {
+
+		StatusPayments() {
+			super("statuspayments", "s", 1);
+		}
+
+		@Override
+		String parse(String[] message) {
+			return message[1];
+		}
+
+		@Override
+		Object execute(CommandContext context, String groupID) throws Exception {
+			getOwnedGroup(context, groupID);
+			BankAccount userBA = context.getUserAccount();
+
+			Report report = new Report(Report.Kind.PAYMENT_STATUS);
+			for (Map.Entry<RequestID, List<String>> entry : userBA.statusPayments(groupID).entrySet()) {
+				report.add(entry.getKey().toString(), entry.getValue());
+			}
+			return context.stream(report);
+		}
+	}
+
+	private static final class History extends Command<String> {
+
+		History() {
+			super("history", "h", 1);
+		}
+
+		@Override
+		String parse(String[] message) {
+			return message[1];
+		}
+
+		@Override
+		Object execute(CommandContext context, String groupID) throws Exception {
+			getOwnedGroup(context, groupID);
+			long start = System.nanoTime();
+			List<String> paymentIds = context.getUserAccount().getHistory(groupID, context.getCipherPass());
+			context.getStats().phase(Metrics.PHASE_PERSISTENCE, start);
+			return context.stream(new Report(Report.Kind.HISTORY).add(groupID, paymentIds));
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * Classe responsavel pelas estatisticas dos handshakes TLS do servidor:
+ * numero de handshakes completos, retomados (a partir da cache de sessoes) e
+ * falhados, e a sua duracao.
+ *
+ * @author grupo 36.
+ *
+ */
+public class HandshakeStats {
+
+	private final AtomicLong full = new AtomicLong();
+	private final AtomicLong resumed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Regista um handshake concluido.
+	 *
+	 * @param session      A sessao TLS negociada.
+	 * @param startMillis  O instante de inicio do handshake
+	 *                     (System.currentTimeMillis()).
+	 * @param elapsedNanos A duracao do handshake.
+	 * @return true caso a sessao tenha sido retomada.
+	 */
+	public boolean record(SSLSession session, long startMillis, long elapsedNanos) {
+		// uma sessao retomada foi criada antes do inicio deste handshake
+		boolean isResumed = session.getCreationTime() < startMillis;
+		if (isResumed) {
+			resumed.incrementAndGet();
+		} else {
+			full.incrementAndGet();
+		}
+		totalNanos.addAndGet(elapsedNanos);
+		maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+		return isResumed;
+	}
+
+	public void recordFailure() {
+		failed.incrementAndGet();
+	}
+
+	public long getFullCount() {
+		return full.get();
+	}
+
+	public long getResumedCount() {
+		return resumed.get();
+	}
+
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	public double getAverageMillis() {
+		long count = full.get() + resumed.get();
+		return count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+	}
+
+	public double getMaxMillis() {
+		return maxNanos.get() / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("completos: %d, retomados: %d, falhados: %d, media: %.1f ms, maximo: %.1f ms",
+				getFullCount(), getResumedCount(), getFailedCount(), getAverageMillis(), getMaxMillis());
+	}
+
+}
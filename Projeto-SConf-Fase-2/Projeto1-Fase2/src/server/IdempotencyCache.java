@@ -0,0 +1,120 @@
+package server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Cache dos resultados dos comandos enviados com uma chave de idempotencia,
+ * por usuario e chave. E limitada em numero de entradas e cada entrada expira
+ * ao fim de um tempo fixo; as entradas mais antigas sao removidas primeiro.
+ * Um pedido em curso fica registado na cache, pelo que um pedido repetido
+ * enviado entretanto espera pelo resultado do original.
+ *
+ * @author grupo 36.
+ *
+ */
+public class IdempotencyCache {
+
+	private final int capacity;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	/**
+	 * @param capacity  O numero maximo de entradas.
+	 * @param ttlMillis O tempo, em milissegundos, ao fim do qual uma entrada
+	 *                  expira.
+	 */
+	public IdempotencyCache(int capacity, long ttlMillis) {
+		this.capacity = capacity;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Regista um pedido, caso nao exista ainda um pedido com a mesma chave.
+	 *
+	 * @param userID  O usuario que enviou o pedido.
+	 * @param key     A chave de idempotencia.
+	 * @param pending O resultado do pedido, completado por quem o executa.
+	 * @return O resultado do pedido original, ou null caso o pedido tenha sido
+	 *         registado e deva ser executado.
+	 */
+	public synchronized CompletableFuture<Object> putIfAbsent(String userID, String key,
+			CompletableFuture<Object> pending) {
+		long now = System.currentTimeMillis();
+		expire(now);
+		String id = idOf(userID, key);
+		Entry existing = entries.get(id);
+		if (existing != null) {
+			return existing.result;
+		}
+		entries.put(id, new Entry(pending, now));
+		evict();
+		return null;
+	}
+
+	/**
+	 * Remove um pedido que nao chegou a ter resultado, para que possa ser
+	 * repetido.
+	 */
+	public synchronized void remove(String userID, String key, CompletableFuture<Object> pending) {
+		String id = idOf(userID, key);
+		Entry entry = entries.get(id);
+		if (entry != null && entry.result == pending) {
+			entries.remove(id);
+		}
+	}
+
+	/**
+	 * Regista o resultado de um pedido recuperado da blockchain, com a hora a
+	 * que foi feito, para que expire como se o servidor nao tivesse sido
+	 * reiniciado. Os pedidos devem ser recuperados pela ordem em que foram
+	 * feitos.
+	 *
+	 * @param createdAt A hora, em milissegundos, a que o pedido foi feito.
+	 */
+	public synchronized void recover(String userID, String key, Object result, long createdAt) {
+		long now = System.currentTimeMillis();
+		if (now - createdAt >= ttlMillis) {
+			return;
+		}
+		expire(now);
+		String id = idOf(userID, key);
+		if (!entries.containsKey(id)) {
+			entries.put(id, new Entry(CompletableFuture.completedFuture(result), createdAt));
+			evict();
+		}
+	}
+
+	private void evict() {
+		while (entries.size() > capacity) {
+			Iterator<Entry> eldest = entries.values().iterator();
+			eldest.next();
+			eldest.remove();
+		}
+	}
+
+	private void expire(long now) {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext() && now - it.next().getValue().createdAt >= ttlMillis) {
+			it.remove();
+		}
+	}
+
+	private static String idOf(String userID, String key) {
+		return userID + '\n' + key;
+	}
+
+	private static final class Entry {
+
+		private final CompletableFuture<Object> result;
+		private final long createdAt;
+
+		private Entry(CompletableFuture<Object> result, long createdAt) {
+			this.result = result;
+			this.createdAt = createdAt;
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias, em microssegundos, com intervalos de tamanho
+ * exponencial (8 intervalos por cada potencia de 2, ou seja, um erro relativo
+ * inferior a 12,5%). O registo e feito sem bloqueios e o espaco ocupado e fixo.
+ *
+ * @author grupo 36.
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKETS = 8;
+	private static final int SUB_BITS = 3;
+	private static final int BUCKETS = (65 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	/**
+	 * Regista uma latencia.
+	 *
+	 * @param nanos A latencia em nanossegundos.
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		counts.incrementAndGet(indexOf(micros));
+		count.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		maxMicros.accumulateAndGet(micros, Math::max);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMaxMicros() {
+		return maxMicros.get();
+	}
+
+	public double getMeanMicros() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) totalMicros.get() / n;
+	}
+
+	/**
+	 * Obtem o percentil indicado.
+	 *
+	 * @param percentile O percentil, entre 0 e 100.
+	 * @return O limite superior do intervalo que contem o percentil, em
+	 *         microssegundos (nunca superior ao maximo registado).
+	 */
+	public long getPercentileMicros(double percentile) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), maxMicros.get());
+			}
+		}
+		return maxMicros.get();
+	}
+
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (msb - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBoundOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int msb = index / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = index % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << (msb - SUB_BITS)) - 1;
+	}
+
+}
@@ -0,0 +1,145 @@
+package server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classe responsavel pelas metricas dos comandos executados pelo servidor: o
+ * numero de execucoes, a latencia total e a de cada fase (verificacao da
+ * assinatura, atualizacao dos saldos, escrita na blockchain e escrita nos
+ * ficheiros), e os erros por tipo de excecao.
+ *
+ * @author grupo 36.
+ *
+ */
+public class Metrics {
+
+	public static final String PHASE_SIGNATURE = "assinatura";
+	public static final String PHASE_BALANCE = "saldo";
+	public static final String PHASE_BLOCKCHAIN = "blockchain";
+	public static final String PHASE_PERSISTENCE = "persistencia";
+
+	private final Map<String, CommandStats> commands = new ConcurrentHashMap<String, CommandStats>();
+	private final long startNanos = System.nanoTime();
+	private long lastDumpCount = 0;
+	private long lastDumpNanos = startNanos;
+
+	/**
+	 * Obtem as metricas de um comando, criando-as caso nao existam.
+	 *
+	 * @param command O nome do comando.
+	 * @return As metricas do comando.
+	 */
+	public CommandStats forCommand(String command) {
+		return commands.computeIfAbsent(command, CommandStats::new);
+	}
+
+	/**
+	 * Escreve periodicamente o relatorio das metricas no output do servidor.
+	 *
+	 * @param intervalSeconds O intervalo entre relatorios, em segundos.
+	 */
+	public void startDump(int intervalSeconds) {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleAtFixedRate(() -> System.out.println(dump()), intervalSeconds, intervalSeconds,
+				TimeUnit.SECONDS);
+	}
+
+	private synchronized String dump() {
+		long now = System.nanoTime();
+		long total = getTotalCount();
+		double seconds = (now - lastDumpNanos) / 1e9;
+		String header = String.format("SERVIDOR: Metricas (ultimo intervalo: %d pedidos, %.1f pedidos/s)",
+				total - lastDumpCount, (total - lastDumpCount) / seconds);
+		lastDumpCount = total;
+		lastDumpNanos = now;
+		return header + System.lineSeparator() + report();
+	}
+
+	private long getTotalCount() {
+		long total = 0;
+		for (CommandStats stats : commands.values()) {
+			total += stats.latency.getCount();
+		}
+		return total;
+	}
+
+	/**
+	 * Constroi o relatorio das metricas, com uma linha por comando e por fase.
+	 * As latencias estao em microssegundos e o ritmo e a media desde o arranque.
+	 *
+	 * @return O relatorio.
+	 */
+	public String report() {
+		double uptime = (System.nanoTime() - startNanos) / 1e9;
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Pedidos: %d (%.2f pedidos/s)", getTotalCount(), getTotalCount() / uptime));
+		for (CommandStats stats : new TreeMap<String, CommandStats>(commands).values()) {
+			sb.append(System.lineSeparator());
+			sb.append(String.format("%s: %.2f pedidos/s, ", stats.command, stats.latency.getCount() / uptime));
+			appendHistogram(sb, stats.latency);
+			for (Map.Entry<String, LatencyHistogram> phase : new TreeMap<String, LatencyHistogram>(stats.phases)
+					.entrySet()) {
+				sb.append(System.lineSeparator()).append("  ").append(phase.getKey()).append(": ");
+				appendHistogram(sb, phase.getValue());
+			}
+			if (!stats.errors.isEmpty()) {
+				sb.append(System.lineSeparator()).append("  erros:");
+				for (Map.Entry<String, AtomicLong> error : new TreeMap<String, AtomicLong>(stats.errors)
+						.entrySet()) {
+					sb.append(' ').append(error.getKey()).append('=').append(error.getValue().get());
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void appendHistogram(StringBuilder sb, LatencyHistogram histogram) {
+		sb.append(String.format("n=%d p50=%d p90=%d p99=%d max=%d us", histogram.getCount(),
+				histogram.getPercentileMicros(50), histogram.getPercentileMicros(90),
+				histogram.getPercentileMicros(99), histogram.getMaxMicros()));
+	}
+
+	/**
+	 * Metricas de um comando.
+	 */
+	public static class CommandStats {
+
+		private final String command;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final Map<String, LatencyHistogram> phases = new ConcurrentHashMap<String, LatencyHistogram>();
+		private final Map<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+		private CommandStats(String command) {
+			this.command = command;
+		}
+
+		public void record(long nanos) {
+			latency.record(nanos);
+		}
+
+		/**
+		 * Regista a duracao de uma fase do comando.
+		 *
+		 * @param phase      O nome da fase.
+		 * @param startNanos O instante de inicio da fase (System.nanoTime()).
+		 */
+		public void phase(String phase, long startNanos) {
+			phases.computeIfAbsent(phase, p -> new LatencyHistogram()).record(System.nanoTime() - startNanos);
+		}
+
+		public void error(Throwable error) {
+			errors.computeIfAbsent(error.getClass().getSimpleName(), e -> new AtomicLong()).incrementAndGet();
+		}
+	}
+
+}
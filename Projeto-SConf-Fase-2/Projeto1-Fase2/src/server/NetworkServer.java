@@ -1,18 +1,28 @@
 package server;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignedObject;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.net.ServerSocketFactory;
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLServerSocket;
-import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
 
 import data.IndPendingPaymentData;
 import data.UsersData;
@@ -21,9 +31,18 @@ import domain.BankAccount;
 import domain.BankAccountCatalog;
 import domain.BlockChain;
 import domain.GroupCatalog;
+import domain.Money;
 import domain.RecoverBlockChain;
+import domain.RequestID;
+import exceptions.InvalidIdentifierException;
 import exceptions.InvalidOperation;
 import exceptions.UserNotFoundException;
+import protocol.IdempotencyKey;
+import protocol.MessageChannel;
+import protocol.MessageSender;
+import protocol.PipelinedStreamChannel;
+import protocol.Protocol;
+import protocol.SignedTransaction;
 
 /**
  * Classe responsavel pela interacao com os clientes.
@@ -35,124 +54,477 @@ public class NetworkServer {
 
 	private static final String SECURITY_FOLDER = "Projeto1-Fase2/security/";
 	private static final String CER = ".cer";
+	private static final String SHUTTING_DOWN = "O servidor esta a encerrar.";
 
-	private Skeleton<Object> skel = new Skeleton<Object>();
-	private BankAccountCatalog bankCatalog = new BankAccountCatalog();
+	private Metrics metrics = new Metrics();
+	private Skeleton<Object> skel;
+	private BankAccountCatalog bankCatalog = null;
 	private GroupCatalog groupCatalog = new GroupCatalog();
 	private String cipherPass;
 	private BlockChain blockChain = null;
+	private ServerConfig config;
+	private ConnectionExecutor connectionExecutor;
+	private ExecutorService pipelineWorkers = null;
+	private HandshakeStats handshakeStats = new HandshakeStats();
+	private SessionRegistry sessionRegistry;
+	private RequestGate requestGate = new RequestGate();
+	private ServerSocket serverSocket = null;
+	private NioTransport nioTransport = null;
+	private volatile boolean shuttingDown = false;
+
+	public NetworkServer(ServerConfig config) {
+		this.config = config;
+		this.connectionExecutor = new ConnectionExecutor(config);
+		this.sessionRegistry = new SessionRegistry(config);
+		this.skel = new Skeleton<Object>(metrics, config.getAdminUsers(),
+				new IdempotencyCache(config.getIdempotencyCapacity(), config.getIdempotencyTtlMillis()),
+				new SignatureVerifier(config.getCryptoWorkers()));
+		if (config.getMetricsDumpInterval() > 0) {
+			metrics.startDump(config.getMetricsDumpInterval());
+		}
+	}
 
 	public void init(int port, String cipherPass, String keyStore, String keyStorePass) {
 		try {
 			System.setProperty("javax.net.ssl.keyStore", SECURITY_FOLDER + keyStore);
 			System.setProperty("javax.net.ssl.keyStorePassword", keyStorePass);
-			ServerSocketFactory ssf = SSLServerSocketFactory.getDefault();
-			SSLServerSocket sslServerSocket = (SSLServerSocket) ssf.createServerSocket(port);
 			this.cipherPass = cipherPass;
-			recoverDataToMemory();
-			mainLoop(sslServerSocket);
-		} catch (IOException e) {
+			SSLContext sslContext = SSLContext.getDefault();
+			SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+			sessionContext.setSessionCacheSize(config.getTlsSessionCache());
+			sessionContext.setSessionTimeout(config.getTlsSessionTimeout());
+			if (config.getTransport() == ServerConfig.Transport.NIO) {
+				nioTransport = new NioTransport(this, config, sslContext);
+				nioTransport.bind(port);
+				recoverDataToMemory();
+				installShutdownHook();
+				nioTransport.mainLoop();
+			} else {
+				ServerSocketFactory ssf = sslContext.getServerSocketFactory();
+				serverSocket = (SSLServerSocket) ssf.createServerSocket(port, config.getAcceptBacklog());
+				recoverDataToMemory();
+				installShutdownHook();
+				mainLoop(serverSocket);
+			}
+		} catch (IOException | NoSuchAlgorithmException e) {
 			System.err.println(e.getMessage());
 			System.exit(-1);
 		}
 	}
 
 	public void mainLoop(ServerSocket sslServerSocket) {
-		System.out.println("Servidor conectado");
-		while (true) {
+		System.out.println("Servidor conectado (modo " + config.getConnectionMode().name().toLowerCase() + ")");
+		while (!shuttingDown) {
 			try {
 				Socket inSoc = sslServerSocket.accept();
-				ServerThread newServerThread = new ServerThread(inSoc);
-				newServerThread.start();
+				SessionRegistry.Ticket ticket = sessionRegistry.open();
+				if (ticket == null) {
+					System.err.println("SERVIDOR: Conexao rejeitada, limite de sessoes atingido");
+					inSoc.close();
+				} else if (!connectionExecutor.execute(new ServerThread(inSoc, ticket))) {
+					System.err.println("SERVIDOR: Conexao rejeitada, fila de admissao cheia");
+					ticket.close();
+					inSoc.close();
+				} else {
+					System.out.println("SERVIDOR: Nova conexao (ativas: " + getActiveConnections() + ", em espera: "
+							+ getQueuedConnections() + ")");
+				}
 				// serverSoc.close(); *PORQUE NAO EXISTE COMANDO QUIT - VERIFICAR COM PROFESSOR*
 			} catch (IOException e) {
-				System.err.println(e.getMessage());
+				if (!shuttingDown) {
+					System.err.println(e.getMessage());
+				}
+			}
+		}
+	}
+
+	private void installShutdownHook() {
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "shutdown"));
+	}
+
+	/**
+	 * Encerra o servidor de forma ordenada: deixa de aceitar conexoes e novos
+	 * pedidos, espera (ate ao limite configurado) que os pedidos em curso
+	 * terminem, e escreve no disco o bloco atual da blockchain. E executado
+	 * quando a JVM termina (por exemplo, com SIGTERM ou Ctrl+C).
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			if (shuttingDown) {
+				return;
 			}
+			shuttingDown = true;
 		}
+		System.out.println("SERVIDOR: A encerrar (pedidos em curso: " + requestGate.getActiveCount() + ")");
+		try {
+			if (serverSocket != null) {
+				serverSocket.close();
+			}
+			if (nioTransport != null) {
+				nioTransport.close();
+			}
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+
+		int pending = requestGate.close(config.getShutdownTimeoutMillis());
+		if (pending > 0) {
+			System.err.println("SERVIDOR: " + pending + " pedidos nao terminaram dentro do limite de espera");
+		}
+		if (blockChain != null) {
+			blockChain.close();
+		}
+		System.out.println("SERVIDOR: Encerrado");
+	}
+
+	public int getActiveConnections() {
+		return connectionExecutor.getActiveCount();
 	}
 
-	public class ServerThread extends Thread {
+	public int getQueuedConnections() {
+		return connectionExecutor.getQueuedCount();
+	}
+
+	public SessionRegistry getSessionRegistry() {
+		return sessionRegistry;
+	}
+
+	public class ServerThread implements Runnable {
 		private Socket socket;
+		private SessionRegistry.Ticket ticket;
 
-		private ServerThread(Socket inSoc) {
+		private ServerThread(Socket inSoc, SessionRegistry.Ticket ticket) {
 			socket = inSoc;
-			System.out.println("SERVIDOR: Nova conexao");
+			this.ticket = ticket;
 		}
 
 		public void run() {
 			try {
-				ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-				ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+				socket.setSoTimeout(config.getIdleTimeoutMillis());
+				handshake((SSLSocket) socket);
+				MessageChannel channel = Protocol.accept(socket.getInputStream(), socket.getOutputStream());
+				if (channel instanceof PipelinedStreamChannel) {
+					servePipelined((PipelinedStreamChannel) channel, ticket);
+				} else {
+					serve(channel, ticket);
+				}
+			} catch (SocketTimeoutException e) {
+				System.out.println("SERVIDOR: Conexao inativa encerrada");
+			} catch (EOFException e) {
+				/* O cliente terminou a conexao */
+			} catch (IOException | ClassNotFoundException e) {
+				System.err.println(e.getMessage());
+			} finally {
+				ticket.close();
+				try {
+					socket.close();
+				} catch (IOException e) {
+					/* Do nothing */
+				}
+				System.out.println("Conexao encerrada");
+			}
+		}
+	}
 
-				String userID = (String) in.readObject();
+	/**
+	 * Faz o handshake TLS de uma conexao, registando a sua duracao e se a sessao
+	 * foi retomada.
+	 * 
+	 * @param socket O socket da conexao.
+	 */
+	private void handshake(SSLSocket socket) throws IOException {
+		long startMillis = System.currentTimeMillis();
+		long start = System.nanoTime();
+		try {
+			socket.startHandshake();
+		} catch (IOException e) {
+			handshakeStats.recordFailure();
+			throw e;
+		}
+		handshakeCompleted(socket.getSession(), startMillis, System.nanoTime() - start);
+	}
 
-				if (authentication(in, out, userID)) {
-					out.writeObject(true);
+	/**
+	 * Regista um handshake TLS concluido.
+	 */
+	void handshakeCompleted(SSLSession session, long startMillis, long elapsedNanos) {
+		boolean resumed = handshakeStats.record(session, startMillis, elapsedNanos);
+		System.out.println(String.format("SERVIDOR: Handshake TLS em %.1f ms, sessao %s (%s)", elapsedNanos / 1e6,
+				resumed ? "retomada" : "nova", handshakeStats));
+	}
 
-					String message = null;
+	public HandshakeStats getHandshakeStats() {
+		return handshakeStats;
+	}
 
-					while ((message = (String) in.readObject()) != null) {
-						Object response = skel.invoke(userID, bankCatalog, groupCatalog, message, in, out, blockChain, cipherPass);
-						out.writeObject(response);
-					}
-				} else {
-					out.writeObject(false);
-				}
+	/**
+	 * Atende um cliente ate este terminar a conexao: autentica-o e executa os
+	 * comandos recebidos.
+	 * 
+	 * @param channel O canal de mensagens do cliente.
+	 * @param ticket  O registo da sessao do cliente.
+	 */
+	void serve(MessageChannel channel, SessionRegistry.Ticket ticket) throws IOException, ClassNotFoundException {
+		String userID = authenticate(channel, ticket);
 
-				System.out.println("Conexao encerrada");
+		if (userID != null) {
+			String message = null;
 
-				socket.close();
+			while ((message = (String) channel.readObject()) != null) {
+				channel.writeObject(process(userID, message, channel));
+			}
+		}
+	}
 
-			} catch (IOException | ClassNotFoundException e) {
-				System.err.println(e.getMessage());
+	/**
+	 * Atende um cliente no modo pipelined: esta thread apenas le as tramas, que
+	 * sao executadas pelas threads de trabalho do pipeline.
+	 * 
+	 * @param channel O canal pipelined do cliente.
+	 * @param ticket  O registo da sessao do cliente.
+	 */
+	void servePipelined(PipelinedStreamChannel channel, SessionRegistry.Ticket ticket)
+			throws IOException, ClassNotFoundException {
+		Pipeline pipeline = new Pipeline(this, ticket, getPipelineWorkers(), config.getPipelineMaxInFlight(),
+				new Pipeline.FrameSink() {
+			@Override
+			public void write(int id, Object message) throws IOException {
+				channel.write(id, message);
+			}
+
+			@Override
+			public void close() {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					/* Do nothing */
+				}
+			}
+
+			@Override
+			public void resume() {
+				/* A thread que le a conexao espera em awaitCapacity */
 			}
+		});
+		try {
+			while (true) {
+				PipelinedStreamChannel.Frame frame = channel.read();
+				pipeline.onFrame(frame.getId(), frame.getMessage());
+				pipeline.awaitCapacity();
+			}
+		} catch (EOFException | SocketException e) {
+			/* O cliente terminou a conexao */
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pipeline.close();
+		}
+	}
+
+	private synchronized ExecutorService getPipelineWorkers() {
+		if (pipelineWorkers == null) {
+			pipelineWorkers = Executors.newFixedThreadPool(config.getPipelineWorkers());
 		}
+		return pipelineWorkers;
 	}
 
-	private boolean authentication(ObjectInputStream in, ObjectOutputStream out, String userID)
+	/**
+	 * Autentica o cliente, enviando-lhe o resultado da autenticacao. A
+	 * autenticacao falha tambem caso o usuario ja tenha o numero maximo de
+	 * sessoes simultaneas. Espera por cada mensagem do cliente, pelo que so e
+	 * usado pelos transportes com uma thread por conexao.
+	 * 
+	 * @param channel O canal de mensagens do cliente.
+	 * @param ticket  O registo da sessao do cliente.
+	 * @return O id do usuario autenticado, ou null caso a autenticacao falhe.
+	 */
+	String authenticate(MessageChannel channel, SessionRegistry.Ticket ticket)
 			throws IOException, ClassNotFoundException {
-		AuthenticationHandler authHandler = new AuthenticationHandler(bankCatalog);
-		int flag = 0;
-		if (authHandler.isRegistered(cipherPass, userID)) {
-			flag = 1;
+		Authentication authentication = newAuthentication(channel, ticket);
+		while (!authentication.onMessage(channel.readObject())) {
+			/* A autenticacao espera pela mensagem seguinte */
 		}
+		return authentication.getUserID();
+	}
 
-		out.writeObject(Long.valueOf(authHandler.getNonce()));
-		out.writeObject(Integer.valueOf(flag));
+	/**
+	 * Inicia a autenticacao de um cliente, conduzida pelas mensagens recebidas
+	 * (ver Authentication).
+	 *
+	 * @param channel O canal por onde sao enviadas as mensagens ao cliente.
+	 * @param ticket  O registo da sessao do cliente.
+	 */
+	Authentication newAuthentication(MessageSender channel, SessionRegistry.Ticket ticket) {
+		return new Authentication(channel, ticket);
+	}
 
-		if (flag == 0) {
-			register(in, out, authHandler, userID);
-			return true;
-		} else if (flag == 1) {
-			byte[] signedNonce = (byte[]) in.readObject();
-			return authHandler.verifyNonce(cipherPass, userID, signedNonce);
+	/**
+	 * Executa um comando de um usuario autenticado.
+	 * 
+	 * @return A resposta a enviar ao cliente.
+	 */
+	Object process(String userID, String message, MessageChannel channel) throws IOException, ClassNotFoundException {
+		if (!requestGate.enter()) {
+			return SHUTTING_DOWN;
+		}
+		try {
+			return skel.invoke(userID, bankCatalog, groupCatalog, message, channel, blockChain, cipherPass);
+		} finally {
+			requestGate.exit();
 		}
-		return false;
 	}
 
-	private void register(ObjectInputStream in, ObjectOutputStream out, AuthenticationHandler authHandler,
-			String userID) throws ClassNotFoundException, IOException {
-		long nonce = (Long) in.readObject();
-		byte[] signedNonce = (byte[]) in.readObject();
-		Certificate certificate = (Certificate) in.readObject();
+	/**
+	 * Inicia a verificacao da assinatura de uma mensagem, caso seja uma
+	 * transacao assinada, sem esperar pelo resultado.
+	 *
+	 * @return A transacao com a verificacao em curso, ou a propria mensagem caso
+	 *         nao seja uma transacao assinada.
+	 */
+	Object startVerification(String userID, Object message) {
+		if (!(message instanceof SignedObject) && !(message instanceof SignedTransaction)) {
+			return message;
+		}
+		try {
+			SignedTransaction transaction = SignedTransaction.from(message);
+			return new SignatureVerifier.Pending(transaction,
+					skel.getVerifier().verify(cipherPass, userID, transaction));
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			return message;
+		}
+	}
+
+	/**
+	 * Autenticacao de um cliente, conduzida pelas mensagens recebidas: cada
+	 * mensagem do cliente faz avancar a autenticacao um passo, sem esperar pela
+	 * mensagem seguinte. Os transportes nao bloqueantes chamam onMessage quando
+	 * cada mensagem chega, pelo que um cliente que nao envie as mensagens em
+	 * falta nao ocupa nenhuma thread.
+	 */
+	final class Authentication {
+
+		private final MessageSender channel;
+		private final SessionRegistry.Ticket ticket;
+		private final AuthenticationHandler authHandler = new AuthenticationHandler(bankCatalog);
+		private Step step = Step.USER_ID;
+		private String userID = null;
+		private long nonce;
+		private byte[] signedNonce = null;
+		private String authenticated = null;
 
-		if (authHandler.verifyNonce(nonce, signedNonce, certificate)) {
+		private Authentication(MessageSender channel, SessionRegistry.Ticket ticket) {
+			this.channel = channel;
+			this.ticket = ticket;
+		}
+
+		/**
+		 * Trata a mensagem seguinte do cliente.
+		 *
+		 * @param message A mensagem recebida.
+		 * @return true caso a autenticacao tenha terminado, com o resultado ja
+		 *         enviado ao cliente.
+		 * @throws ClassCastException caso a mensagem nao seja a esperada.
+		 */
+		boolean onMessage(Object message) throws IOException {
+			// o registo de um novo usuario escreve nos ficheiros do servidor
+			if (!requestGate.enter()) {
+				throw new EOFException(SHUTTING_DOWN);
+			}
 			try {
-				byte[] certBytes = certificate.getEncoded();
-				authHandler.registerNewUser(cipherPass, userID, certBytes, SECURITY_FOLDER + userID + CER);
-			} catch (CertificateEncodingException e) {
-				e.printStackTrace();
+				switch (step) {
+				case USER_ID:
+					userID = (String) message;
+					boolean registered = authHandler.isRegistered(cipherPass, userID);
+					channel.writeObject(Long.valueOf(authHandler.getNonce()));
+					channel.writeObject(Integer.valueOf(registered ? 1 : 0));
+					step = registered ? Step.SIGNED_NONCE : Step.NEW_USER_NONCE;
+					return false;
+				case SIGNED_NONCE:
+					return finish(authHandler.verifyNonce(cipherPass, userID, (byte[]) message));
+				case NEW_USER_NONCE:
+					nonce = (Long) message;
+					step = Step.NEW_USER_SIGNED_NONCE;
+					return false;
+				case NEW_USER_SIGNED_NONCE:
+					signedNonce = (byte[]) message;
+					step = Step.NEW_USER_CERTIFICATE;
+					return false;
+				case NEW_USER_CERTIFICATE:
+					return finish(register((Certificate) message));
+				default:
+					throw new IllegalStateException("Autenticacao ja terminada.");
+				}
+			} finally {
+				requestGate.exit();
 			}
 		}
+
+		/**
+		 * @return O id do usuario autenticado, ou null caso a autenticacao tenha
+		 *         falhado ou ainda nao tenha terminado.
+		 */
+		String getUserID() {
+			return authenticated;
+		}
+
+		private boolean finish(boolean verified) throws IOException {
+			step = Step.DONE;
+			if (verified) {
+				if (ticket.bindUser(userID)) {
+					authenticated = userID;
+					channel.writeObject(true);
+					return true;
+				}
+				System.err.println("SERVIDOR: Limite de sessoes do usuario " + userID + " atingido");
+			}
+			channel.writeObject(false);
+			return true;
+		}
+
+		/**
+		 * Regista um novo usuario.
+		 *
+		 * @return false caso o identificador do usuario nao possa ser usado.
+		 */
+		private boolean register(Certificate certificate) {
+			// o identificador e o ultimo termo de algumas transacoes, onde seria
+			// confundido com uma chave de idempotencia
+			if (userID.startsWith(IdempotencyKey.PREFIX)) {
+				System.err.println("SERVIDOR: Identificador de usuario invalido: " + userID);
+				return false;
+			}
+			if (authHandler.verifyNonce(nonce, signedNonce, certificate)) {
+				try {
+					byte[] certBytes = certificate.getEncoded();
+					authHandler.registerNewUser(cipherPass, userID, certBytes, SECURITY_FOLDER + userID + CER);
+				} catch (CertificateEncodingException e) {
+					e.printStackTrace();
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A mensagem que a autenticacao espera a seguir.
+	 */
+	private enum Step {
+		USER_ID, SIGNED_NONCE, NEW_USER_NONCE, NEW_USER_SIGNED_NONCE, NEW_USER_CERTIFICATE, DONE
 	}
 
 	private BankAccountCatalog recoverDataToMemory() {
 		
-		for (String userID : UsersData.getAllUsersIDs(cipherPass)) {
-			bankCatalog.add(userID, new BankAccount());
-		}
+		bankCatalog = BankAccountCatalog.load(UsersData.getAllUsersIDs(cipherPass));
 		
-		List<String> individualPayments = IndPendingPaymentData.getAllIndividualPaymentIDs(cipherPass);
+		Map<RequestID, String[]> individualPayments = new HashMap<RequestID, String[]>();
+		for (String ip : IndPendingPaymentData.getAllIndividualPaymentIDs(cipherPass)) {
+			String[] fields = ip.split(":", 3);
+			try {
+				individualPayments.put(RequestID.parse(fields[0]), fields);
+			} catch (InvalidIdentifierException e) {
+				System.err.println(e.getMessage());
+			}
+		}
 		List<String> transactions = recoverTransactions();
 		List<String> ipTransactions = new ArrayList<String>();
 		
@@ -166,37 +538,35 @@ public class NetworkServer {
 		}
 		
 		for (String t : ipTransactions) {
-			splittedLine = t.split(" ", 3);
-			String uniqueID = splittedLine[1];
+			splittedLine = IdempotencyKey.untag(t).split(" ", 3);
 			String otherUserID = splittedLine[2];
+			RequestID uniqueID = null;
+			try {
+				uniqueID = RequestID.parse(splittedLine[1]);
+			} catch (InvalidIdentifierException e) {
+				continue;
+			}
 			
-			for (String ip : individualPayments) {
-				splittedLine = ip.split(":", 3);
-				String uID = splittedLine[0];
-				if (uID.equals(uniqueID)) {
-					String amount = splittedLine[1];
-					String userID = splittedLine[2];
-					try {
-						BankAccount ba = bankCatalog.getBankAccount(otherUserID);
-						ba.recoverAddIndPaymentRequest(Double.valueOf(amount), otherUserID, userID, uniqueID);
-					} catch (UserNotFoundException e) {}
-				}
+			splittedLine = individualPayments.get(uniqueID);
+			if (splittedLine != null) {
+				String amount = splittedLine[1];
+				String userID = splittedLine[2];
+				try {
+					BankAccount ba = bankCatalog.getBankAccount(otherUserID);
+					ba.recoverAddIndPaymentRequest(Money.of(Double.valueOf(amount)), otherUserID, userID, uniqueID);
+				} catch (UserNotFoundException e) {}
 			}
 		}
 		
-		skel.rerunOperations(bankCatalog, transactions, cipherPass);
+		skel.rerunOperations(bankCatalog, transactions, RecoverBlockChain.getTransactionTimes(), cipherPass);
 		
 		return bankCatalog;
 	}
 
 	private List<String> recoverTransactions() {
 		List<String> transactions = RecoverBlockChain.recoverAllBlocks();
-		long index = RecoverBlockChain.getIndex();
-		long numTransactions = (long) (transactions.size() % 5);
-		if (numTransactions == 0 && transactions.size() != 0) {
-			index++;
-		}
-		blockChain = new BlockChain(index, RecoverBlockChain.getHash(), (long) (transactions.size() % 5));
+		blockChain = new BlockChain(RecoverBlockChain.getIndex(), RecoverBlockChain.getHash(),
+				RecoverBlockChain.getNumTransactions(), config.getBlockCapacity(), config.getBlockMaxAgeMillis());
 		return transactions;
 	}
 
@@ -0,0 +1,647 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+
+import protocol.MessageChannel;
+import protocol.MessageCodec;
+import protocol.Protocol;
+
+/**
+ * Transporte nao bloqueante do servidor, baseado em seletores NIO e SSLEngine.
+ * Um numero reduzido de threads de eventos trata do TLS e da leitura e escrita
+ * de todas as conexoes; cada pedido completo e despachado para um conjunto de
+ * threads de trabalho, pelo que uma sessao inativa nao ocupa nenhuma thread.
+ *
+ * Este transporte so aceita clientes que usem o protocolo com tramas (em
+ * qualquer uma das suas versoes).
+ *
+ * @author grupo 36.
+ *
+ */
+public class NioTransport {
+
+	private static final long READ_TIMEOUT_MS = 30000;
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+	private static final Object EOF = new Object();
+	private static final long IDLE_CHECK_MS = 1000;
+	// tramas recebidas por tratar e buffers por enviar a partir dos quais a
+	// sessao deixa de ler o socket
+	private static final int INBOUND_HIGH_WATER = 16;
+	private static final int OUTBOUND_HIGH_WATER = 16;
+
+	private final NetworkServer server;
+	private final SSLContext sslContext;
+	private final ExecutorService workers;
+	private final EventLoop[] loops;
+	private final SessionRegistry registry;
+	private final long idleTimeoutMillis;
+	private final int pipelineMaxInFlight;
+	private ServerSocketChannel serverChannel;
+	private int acceptBacklog;
+
+	public NioTransport(NetworkServer server, ServerConfig config, SSLContext sslContext) throws IOException {
+		this.server = server;
+		this.sslContext = sslContext;
+		this.acceptBacklog = config.getAcceptBacklog();
+		this.registry = server.getSessionRegistry();
+		this.idleTimeoutMillis = config.getIdleTimeoutMillis();
+		this.pipelineMaxInFlight = config.getPipelineMaxInFlight();
+		this.workers = Executors.newFixedThreadPool(config.getNioWorkers());
+		this.loops = new EventLoop[config.getNioSelectors()];
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop(i);
+		}
+	}
+
+	public void bind(int port) throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port), acceptBacklog);
+	}
+
+	public void mainLoop() {
+		for (EventLoop loop : loops) {
+			loop.start();
+		}
+		System.out.println("Servidor conectado (transporte nio)");
+
+		int next = 0;
+		while (serverChannel.isOpen()) {
+			try {
+				SocketChannel channel = serverChannel.accept();
+				SessionRegistry.Ticket ticket = registry.open();
+				if (ticket == null) {
+					System.err.println("SERVIDOR: Conexao rejeitada, limite de sessoes atingido");
+					channel.close();
+					continue;
+				}
+				Session session = null;
+				try {
+					channel.configureBlocking(false);
+					channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+					EventLoop loop = loops[next++ % loops.length];
+					session = new Session(channel, loop, ticket);
+					loop.register(session);
+				} finally {
+					if (session == null) {
+						// a sessao nao chegou a ser criada (por ex. falha do SSLEngine)
+						ticket.close();
+						channel.close();
+					}
+				}
+				System.out.println("SERVIDOR: Nova conexao (sessoes: " + registry.getSessionCount() + ")");
+			} catch (IOException | RuntimeException e) {
+				if (serverChannel.isOpen()) {
+					System.err.println(e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deixa de aceitar novas conexoes. As sessoes abertas continuam a ser
+	 * atendidas.
+	 */
+	public void close() throws IOException {
+		serverChannel.close();
+	}
+
+	public int getSessionCount() {
+		return registry.getSessionCount();
+	}
+
+	private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(minCapacity, buffer.capacity() * 2));
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	/**
+	 * Thread de eventos, responsavel por um subconjunto das conexoes. Todas as
+	 * operacoes sobre o SSLEngine e o socket de uma sessao sao feitas nesta
+	 * thread.
+	 */
+	private class EventLoop extends Thread {
+
+		private final Selector selector;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+		private EventLoop(int id) throws IOException {
+			super("nio-" + id);
+			setDaemon(true);
+			selector = Selector.open();
+		}
+
+		private void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		private void register(Session session) {
+			execute(() -> {
+				try {
+					session.key = session.channel.register(selector, SelectionKey.OP_READ, session);
+					session.pump();
+				} catch (IOException e) {
+					session.close();
+				}
+			});
+		}
+
+		/**
+		 * Encerra as sessoes desta thread sem atividade ha mais tempo do que o
+		 * configurado.
+		 */
+		private void closeIdleSessions(long now) {
+			for (SelectionKey key : selector.keys()) {
+				Session session = (Session) key.attachment();
+				if (key.isValid() && now - session.lastActivity > idleTimeoutMillis) {
+					System.out.println("SERVIDOR: Conexao inativa encerrada");
+					session.close();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			long lastIdleCheck = System.currentTimeMillis();
+			while (true) {
+				try {
+					if (idleTimeoutMillis > 0) {
+						selector.select(IDLE_CHECK_MS);
+					} else {
+						selector.select();
+					}
+
+					Runnable task = null;
+					while ((task = tasks.poll()) != null) {
+						task.run();
+					}
+
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						if (key.isValid()) {
+							((Session) key.attachment()).pump();
+						}
+					}
+
+					long now = System.currentTimeMillis();
+					if (idleTimeoutMillis > 0 && now - lastIdleCheck >= IDLE_CHECK_MS) {
+						lastIdleCheck = now;
+						closeIdleSessions(now);
+					}
+				} catch (IOException e) {
+					System.err.println(e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sessao de um cliente. Do lado da thread de eventos, decifra os dados
+	 * recebidos e reconstroi as tramas; do lado das threads de trabalho, funciona
+	 * como o canal de mensagens usado pela autenticacao e pelo Skeleton.
+	 */
+	private class Session implements MessageChannel {
+
+		private final SocketChannel channel;
+		private final EventLoop loop;
+		private final SSLEngine engine;
+		private final SessionRegistry.Ticket ticket;
+		private SelectionKey key;
+		private volatile long lastActivity = System.currentTimeMillis();
+
+		private ByteBuffer netIn;
+		private ByteBuffer appIn;
+		private ByteBuffer netOut;
+		private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+		private final AtomicBoolean flushScheduled = new AtomicBoolean();
+		private volatile boolean closeRequested = false;
+		private volatile boolean closed = false;
+		private boolean eof = false;
+		private long handshakeStartMillis;
+		private long handshakeStart;
+		private boolean handshakeDone = false;
+
+		private ByteBuffer header = ByteBuffer.allocate(8);
+		private boolean helloDone = false;
+		private volatile MessageCodec codec = null;
+		private Pipeline pipeline = null;
+		private byte[] frame = null;
+		private int filled = 0;
+
+		private final BlockingQueue<Object> inbound = new LinkedBlockingQueue<Object>();
+		// true enquanto o socket nao for lido (ver isReading)
+		private volatile boolean paused = false;
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		// so sao usados pela thread de trabalho que executa drain
+		private NetworkServer.Authentication authentication = null;
+		private String userID = null;
+
+		private Session(SocketChannel channel, EventLoop loop, SessionRegistry.Ticket ticket) throws IOException {
+			this.channel = channel;
+			this.loop = loop;
+			this.ticket = ticket;
+			engine = sslContext.createSSLEngine();
+			engine.setUseClientMode(false);
+			handshakeStartMillis = System.currentTimeMillis();
+			handshakeStart = System.nanoTime();
+			engine.beginHandshake();
+			netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+			netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+			appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+
+			ByteBuffer streamHeader = ByteBuffer.allocate(4);
+			streamHeader.putInt(Protocol.STREAM_HEADER).flip();
+			outbound.add(streamHeader);
+		}
+
+		/**
+		 * Avanca o estado da sessao (handshake, leitura e escrita) ate nao haver
+		 * mais progresso possivel sem novos eventos do socket.
+		 */
+		private void pump() {
+			if (closed) {
+				return;
+			}
+			try {
+				boolean progress = true;
+				while (progress && !closed) {
+					progress = false;
+					HandshakeStatus hs = engine.getHandshakeStatus();
+					if (hs == HandshakeStatus.NEED_TASK) {
+						Runnable task = null;
+						while ((task = engine.getDelegatedTask()) != null) {
+							task.run();
+						}
+						progress = true;
+						continue;
+					}
+					if (wrap(hs)) {
+						progress = true;
+					}
+					if (hs != HandshakeStatus.NEED_WRAP && isReading() && unwrap()) {
+						progress = true;
+					}
+				}
+
+				if (closed) {
+					return;
+				}
+				if (eof || (closeRequested && outbound.isEmpty() && netOut.position() == 0)) {
+					close();
+					return;
+				}
+				paused = !isReading();
+				int ops = paused ? 0 : SelectionKey.OP_READ;
+				key.interestOps(netOut.position() > 0 ? ops | SelectionKey.OP_WRITE : ops);
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		/**
+		 * @return false enquanto houver respostas em excesso por enviar, tramas
+		 *         recebidas em excesso por tratar ou, no modo pipelined, o numero
+		 *         maximo de comandos em curso: o socket deixa de ser lido, pelo
+		 *         que o cliente fica a espera no TCP. As tramas ja decifradas sao
+		 *         ainda entregues.
+		 */
+		private boolean isReading() {
+			if (outbound.size() >= OUTBOUND_HIGH_WATER) {
+				return false;
+			}
+			return pipeline == null ? inbound.size() < INBOUND_HIGH_WATER : !pipeline.isFull();
+		}
+
+		private boolean wrap(HandshakeStatus hs) throws IOException {
+			ByteBuffer src = null;
+			if (hs == HandshakeStatus.NEED_WRAP) {
+				src = EMPTY;
+			} else if (hs == HandshakeStatus.NOT_HANDSHAKING) {
+				src = outbound.peek();
+			}
+			if (src == null || !flushNet()) {
+				return false;
+			}
+
+			SSLEngineResult result = engine.wrap(src, netOut);
+			if (src != EMPTY && !src.hasRemaining()) {
+				outbound.poll();
+			}
+			checkHandshake(result);
+
+			switch (result.getStatus()) {
+			case BUFFER_OVERFLOW:
+				netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+				return true;
+			case CLOSED:
+				eof = true;
+				return false;
+			default:
+				flushNet();
+				return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+			}
+		}
+
+		private boolean unwrap() throws IOException {
+			int read = channel.read(netIn);
+			if (read < 0) {
+				eof = true;
+			} else if (read > 0) {
+				lastActivity = System.currentTimeMillis();
+			}
+			if (netIn.position() == 0) {
+				return false;
+			}
+
+			netIn.flip();
+			SSLEngineResult result = engine.unwrap(netIn, appIn);
+			netIn.compact();
+			checkHandshake(result);
+
+			switch (result.getStatus()) {
+			case BUFFER_UNDERFLOW:
+				if (netIn.position() == netIn.capacity()) {
+					netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+					return true;
+				}
+				return read > 0;
+			case BUFFER_OVERFLOW:
+				deliver();
+				appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+				return true;
+			case CLOSED:
+				eof = true;
+				return false;
+			default:
+				deliver();
+				return read > 0 || result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+			}
+		}
+
+		private void checkHandshake(SSLEngineResult result) {
+			if (!handshakeDone && result.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+				handshakeDone = true;
+				server.handshakeCompleted(engine.getSession(), handshakeStartMillis,
+						System.nanoTime() - handshakeStart);
+			}
+		}
+
+		private boolean flushNet() throws IOException {
+			if (netOut.position() == 0) {
+				return true;
+			}
+			netOut.flip();
+			channel.write(netOut);
+			netOut.compact();
+			return netOut.position() == 0;
+		}
+
+		private void deliver() throws IOException {
+			appIn.flip();
+			while (appIn.hasRemaining()) {
+				if (frame == null) {
+					while (header.hasRemaining() && appIn.hasRemaining()) {
+						header.put(appIn.get());
+					}
+					if (header.hasRemaining()) {
+						break;
+					}
+					header.flip();
+					if (!helloDone) {
+						hello(header.getInt(), header.getInt());
+						header = ByteBuffer.allocate(4);
+						continue;
+					}
+					int length = header.getInt();
+					header.clear();
+					Protocol.checkFrameLength(length);
+					frame = new byte[length];
+					filled = 0;
+				}
+				int n = Math.min(appIn.remaining(), frame.length - filled);
+				appIn.get(frame, filled, n);
+				filled += n;
+				if (filled == frame.length) {
+					received(frame);
+					frame = null;
+				}
+			}
+			appIn.clear();
+		}
+
+		private void hello(int magic, int requested) throws IOException {
+			int version = magic == Protocol.HELLO_MAGIC ? Protocol.negotiate(requested) : 0;
+			ByteBuffer reply = ByteBuffer.allocate(8);
+			reply.putInt(Protocol.HELLO_MAGIC).putInt(version).flip();
+			outbound.add(reply);
+			helloDone = true;
+			if (version == 0) {
+				closeRequested = true;
+			} else {
+				codec = Protocol.codecFor(version);
+				if (Protocol.isPipelined(version)) {
+					pipeline = new Pipeline(server, ticket, workers, pipelineMaxInFlight, new Pipeline.FrameSink() {
+						@Override
+						public void write(int id, Object message) throws IOException {
+							writeFrame(id, message);
+						}
+
+						@Override
+						public void close() {
+							requestClose();
+						}
+
+						@Override
+						public void resume() {
+							// pump volta a ler o socket
+							scheduleFlush();
+						}
+					});
+				}
+			}
+		}
+
+		private void received(byte[] frame) {
+			if (closeRequested) {
+				return;
+			}
+			if (pipeline != null) {
+				// no modo pipelined a trama comeca pelo id de correlacao
+				try {
+					ByteBuffer buffer = ByteBuffer.wrap(frame);
+					int id = buffer.getInt();
+					byte[] payload = new byte[buffer.remaining()];
+					buffer.get(payload);
+					pipeline.onFrame(id, codec.decode(payload));
+				} catch (IOException | ClassNotFoundException | BufferUnderflowException e) {
+					System.err.println(e.getMessage());
+					requestClose();
+				}
+				return;
+			}
+			inbound.add(frame);
+			if (scheduled.compareAndSet(false, true)) {
+				workers.execute(this::drain);
+			}
+		}
+
+		/**
+		 * Executado numa thread de trabalho: trata as mensagens ja recebidas, da
+		 * autenticacao ou dos comandos, libertando a thread quando nao houver
+		 * mais. A autenticacao avanca uma mensagem de cada vez, pelo que nunca
+		 * espera por uma mensagem do cliente.
+		 */
+		private void drain() {
+			try {
+				while (true) {
+					Object next = inbound.poll();
+					if (paused) {
+						// pump volta a ler o socket, caso ja haja espaco
+						scheduleFlush();
+					}
+					if (next == null) {
+						scheduled.set(false);
+						if (inbound.isEmpty() || !scheduled.compareAndSet(false, true)) {
+							return;
+						}
+						continue;
+					}
+					if (next == EOF) {
+						return;
+					}
+
+					Object message = codec.decode((byte[]) next);
+					if (userID == null) {
+						if (authentication == null) {
+							authentication = server.newAuthentication(this, ticket);
+						}
+						if (authentication.onMessage(message)) {
+							userID = authentication.getUserID();
+							if (userID == null) {
+								requestClose();
+								return;
+							}
+						}
+						continue;
+					}
+					writeObject(server.process(userID, (String) message, this));
+				}
+			} catch (IOException | ClassNotFoundException | ClassCastException e) {
+				System.err.println(e.getMessage());
+				requestClose();
+			}
+		}
+
+		@Override
+		public Object readObject() throws IOException, ClassNotFoundException {
+			Object next = null;
+			try {
+				next = inbound.poll(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new EOFException();
+			}
+			if (next == null) {
+				throw new SocketTimeoutException("Tempo de espera esgotado.");
+			}
+			if (next == EOF) {
+				inbound.add(EOF);
+				throw new EOFException();
+			}
+			return codec.decode((byte[]) next);
+		}
+
+		@Override
+		public void writeObject(Object obj) throws IOException {
+			if (closed) {
+				throw new EOFException("Conexao encerrada.");
+			}
+			byte[] payload = codec.encode(obj);
+			ByteBuffer buffer = ByteBuffer.allocate(4 + payload.length);
+			buffer.putInt(payload.length).put(payload).flip();
+			outbound.add(buffer);
+			lastActivity = System.currentTimeMillis();
+			scheduleFlush();
+		}
+
+		private void writeFrame(int id, Object obj) throws IOException {
+			if (closed) {
+				throw new EOFException("Conexao encerrada.");
+			}
+			byte[] payload = codec.encode(obj);
+			ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length);
+			buffer.putInt(payload.length + 4).putInt(id).put(payload).flip();
+			outbound.add(buffer);
+			lastActivity = System.currentTimeMillis();
+			scheduleFlush();
+		}
+
+		private void scheduleFlush() {
+			if (flushScheduled.compareAndSet(false, true)) {
+				loop.execute(() -> {
+					flushScheduled.set(false);
+					pump();
+				});
+			}
+		}
+
+		private void requestClose() {
+			closeRequested = true;
+			scheduleFlush();
+		}
+
+		@Override
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (!handshakeDone) {
+				server.getHandshakeStats().recordFailure();
+			}
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				/* Do nothing */
+			}
+			inbound.add(EOF);
+			if (pipeline != null) {
+				pipeline.close();
+			}
+			ticket.close();
+			System.out.println("Conexao encerrada");
+		}
+	}
+
+}
@@ -0,0 +1,295 @@
+package server;
+
+import java.util.List;
+
+import domain.BankAccount;
+import domain.BankAccount.IndPaymentRequestInformation;
+import domain.Money;
+import domain.QRCodeGenerator;
+import domain.RequestID;
+import exceptions.InsufficientBalanceException;
+import exceptions.InvalidOperation;
+import exceptions.InvalidQrCodeException;
+
+/**
+ * Comandos sobre a conta do usuario: saldo, pagamentos, pedidos de pagamento
+ * individuais e QR codes.
+ *
+ * @author grupo 36.
+ *
+ */
+final class PaymentCommands {
+
+	private static final QRCodeGenerator QR_CODES = new QRCodeGenerator();
+	private static final String NOT_SAVED =
+			"Nao foi possivel guardar a transacao na blockchain; a operacao foi cancelada.";
+
+	private PaymentCommands() {
+	}
+
+	static void registerAll(CommandRegistry registry) {
+		registry.register(new Balance());
+		registry.register(new MakePayment());
+		registry.register(new RequestPayment());
+		registry.register(new ViewRequests());
+		registry.register(new PayRequest());
+		registry.register(new ObtainQRcode());
+		registry.register(new ConfirmQRcode());
+	}
+
+	/**
+	 * Pedido com o usuario e o valor de um pagamento.
+	 */
+	private static final class Transfer {
+
+		private final String userID;
+		private final long amount;
+
+		Transfer(String userID, long amount) {
+			this.userID = userID;
+			this.amount = amount;
+		}
+	}
+
+	/**
+	 * Transfere um valor entre duas contas e guarda a transacao do comando na
+	 * blockchain, desfazendo a transferencia caso a transacao nao seja
+	 * guardada.
+	 *
+	 * @return true caso a transferencia tenha sido feita e guardada.
+	 */
+	private static boolean transfer(CommandContext context, BankAccount from, BankAccount to, long amount)
+			throws InvalidOperation, InsufficientBalanceException {
+		long start = System.nanoTime();
+		return BankAccount.transfer(from, to, amount, () -> {
+			context.getStats().phase(Metrics.PHASE_BALANCE, start);
+			return context.writeTransaction(context.getTransaction());
+		});
+	}
+
+	private static final class Balance extends Command<Void> {
+
+		Balance() {
+			super("balance", "b", 0);
+		}
+
+		@Override
+		boolean isReadOnly() {
+			return true;
+		}
+
+		@Override
+		Void parse(String[] message) {
+			return null;
+		}
+
+		@Override
+		Object execute(CommandContext context, Void request) throws Exception {
+			return String.valueOf(context.getUserAccount().balance());
+		}
+	}
+
+	private static final class MakePayment extends Command.Signed<Transfer> {
+
+		MakePayment() {
+			super("makepayment", "m", 2);
+		}
+
+		@Override
+		boolean acceptsIdempotencyKey() {
+			return true;
+		}
+
+		@Override
+		Transfer parse(String[] message) {
+			return new Transfer(message[1], Money.parse(message[2]));
+		}
+
+		@Override
+		Object execute(CommandContext context, Transfer request) throws Exception {
+			if (context.getUserID().equals(request.userID)) {
+				return Boolean.FALSE;
+			}
+
+			BankAccount otherUserBA = context.getBankCatalog().getBankAccount(request.userID);
+			if (!transfer(context, context.getUserAccount(), otherUserBA, request.amount)) {
+				return NOT_SAVED;
+			}
+			return Boolean.TRUE;
+		}
+	}
+
+	private static final class RequestPayment extends Command<Transfer> {
+
+		RequestPayment() {
+			super("requestpayment", "r", 2);
+		}
+
+		@Override
+		Transfer parse(String[] message) {
+			return new Transfer(message[1], Money.parse(message[2]));
+		}
+
+		@Override
+		Object execute(CommandContext context, Transfer request) throws Exception {
+			if (context.getUserID().equals(request.userID)) {
+				return Boolean.FALSE;
+			}
+
+			BankAccount otherUserBA = context.getBankCatalog().getBankAccount(request.userID);
+			long start = System.nanoTime();
+			otherUserBA.addIndPaymentRequest(request.userID, context.getUserID(), request.amount,
+					context.getCipherPass());
+			context.getStats().phase(Metrics.PHASE_PERSISTENCE, start);
+			return Boolean.TRUE;
+		}
+	}
+
+	private static final class ViewRequests extends Command<Void> {
+
+		ViewRequests() {
+			super("viewrequests", "v", 0);
+		}
+
+		@Override
+		boolean isReadOnly() {
+			return true;
+		}
+
+		@Override
+		Void parse(String[] message) {
+			return null;
+		}
+
+		@Override
+		Object execute(CommandContext context, Void request) throws Exception {
+			List<String> pendingIndPaymentsList = context.getUserAccount().getIndPaymtRequestList();
+			if (pendingIndPaymentsList == null) {
+				return "";
+			}
+			return String.join(",", pendingIndPaymentsList);
+		}
+	}
+
+	private static final class PayRequest extends Command.Signed<String> {
+
+		PayRequest() {
+			super("payrequest", "p", 1);
+		}
+
+		@Override
+		boolean acceptsIdempotencyKey() {
+			return true;
+		}
+
+		@Override
+		String parse(String[] message) {
+			return message[1];
+		}
+
+		@Override
+		Object execute(CommandContext context, String uniqueID) throws Exception {
+			BankAccount userBA = context.getUserAccount();
+			IndPaymentRequestInformation ipri = userBA.getIndPaymentRequestInf(RequestID.parse(uniqueID),
+					context.getCipherPass());
+			BankAccount otherUserBA = context.getBankCatalog().getBankAccount(ipri.getUserWhoRequestedPayment());
+			long balanceStart = System.nanoTime();
+			boolean paid = userBA.payRequest(ipri, otherUserBA, () -> {
+				context.getStats().phase(Metrics.PHASE_BALANCE, balanceStart);
+				return context.writeTransaction(context.getTransaction());
+			});
+			if (!paid) {
+				return NOT_SAVED;
+			}
+			long start = System.nanoTime();
+			context.getBankCatalog().settleGroupPayment(ipri.getUniqueID(), context.getUserID());
+			context.getStats().phase(Metrics.PHASE_PERSISTENCE, start);
+			return Boolean.TRUE;
+		}
+	}
+
+	private static final class ObtainQRcode extends Command<Long> {
+
+		ObtainQRcode() {
+			super("obtainQRcode", "o", 1);
+		}
+
+		@Override
+		Long parse(String[] message) {
+			return Money.parse(message[1]);
+		}
+
+		@Override
+		Object execute(CommandContext context, Long amount) {
+			try {
+				long start = System.nanoTime();
+				String qrCode = QR_CODES.generateQRCode(context.getUserID(), Money.toDouble(amount));
+				context.getStats().phase(Metrics.PHASE_PERSISTENCE, start);
+				return qrCode;
+			} catch (Exception e) {
+				context.getStats().error(e);
+				return Boolean.FALSE;
+			}
+		}
+	}
+
+	/**
+	 * Le a informacao do QR code e envia-a ao cliente, que responde com a
+	 * transacao assinada. Por ser interativo, nao pode ser usado num batch.
+	 */
+	private static final class ConfirmQRcode extends Command<String> {
+
+		ConfirmQRcode() {
+			super("confirmQRcode", "c", 1);
+		}
+
+		@Override
+		boolean acceptsIdempotencyKey() {
+			return true;
+		}
+
+		@Override
+		boolean isAllowedInBatch() {
+			return false;
+		}
+
+		@Override
+		String parse(String[] message) {
+			return message[1];
+		}
+
+		@Override
+		Object execute(CommandContext context, String qrCode) throws Exception {
+			String info = QR_CODES.readQRCode(qrCode);
+			if (info == null) {
+				throw new InvalidQrCodeException("Nao existe pedido identificado pelo qr code \"" + qrCode + "\".");
+			}
+
+			context.getChannel().writeObject(info);
+			context.receiveSignedTransaction();
+			if (!context.verifyTransaction()) {
+				return Boolean.FALSE;
+			}
+
+			String[] parts = info.split("_");
+			String otherUserID = parts[0];
+			if (context.getUserID().equals(otherUserID)) {
+				return Boolean.FALSE;
+			}
+
+			BankAccount otherUserBA = context.getBankCatalog().getBankAccount(otherUserID);
+			long amount;
+			try {
+				amount = Money.parse(parts[1]);
+			} catch (NumberFormatException e) {
+				context.getStats().error(e);
+				return e.getMessage();
+			}
+			if (!transfer(context, context.getUserAccount(), otherUserBA, amount)) {
+				return NOT_SAVED;
+			}
+			return Boolean.TRUE;
+		}
+	}
+
+}
@@ -0,0 +1,337 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import protocol.MessageChannel;
+import protocol.MessageSender;
+import protocol.PipelinedStreamChannel;
+
+/**
+ * Classe responsavel por atender um cliente no modo pipelined. Cada trama
+ * recebida traz o id de correlacao do comando a que pertence, pelo que o
+ * cliente pode ter varios comandos em curso. Os comandos sao executados pela
+ * ordem de chegada, um de cada vez; apenas os comandos so de leitura seguidos
+ * (balance, viewrequests e groups) sao executados em paralelo, pelo que podem
+ * responder fora de ordem entre si, mas nunca ultrapassam um comando anterior
+ * que altere o estado. As mensagens da autenticacao sao tratadas uma a uma, a
+ * medida que chegam, pelo que nenhuma thread fica a espera delas. A
+ * verificacao da assinatura de uma transacao comeca assim que esta e
+ * recebida, nas threads do SignatureVerifier. O numero de comandos em curso e
+ * limitado: ao atingir o limite, o transporte deixa de ler a conexao ate que
+ * um comando termine, pelo que um cliente que envie comandos mais depressa do
+ * que sao executados fica a espera no TCP. Um cliente que envie mais de
+ * MAX_QUEUED_MESSAGES mensagens por ler de um comando e desligado.
+ *
+ * @author grupo 36.
+ *
+ */
+class Pipeline {
+
+	/**
+	 * Destino das tramas enviadas ao cliente.
+	 */
+	interface FrameSink {
+
+		void write(int id, Object message) throws IOException;
+
+		void close();
+
+		/**
+		 * Chamado quando o pipeline, depois de ter atingido o limite de comandos
+		 * em curso, volta a aceitar tramas.
+		 */
+		void resume();
+	}
+
+	private static final long READ_TIMEOUT_MS = 30000;
+	private static final Object EOF = new Object();
+	// as filas nao aceitam null, que e uma mensagem valida
+	private static final Object NULL = new Object();
+	// mensagens por ler de um comando: a transacao assinada e o certificado
+	private static final int MAX_QUEUED_MESSAGES = 2;
+
+	private final NetworkServer server;
+	private final SessionRegistry.Ticket ticket;
+	private final Executor workers;
+	private final FrameSink sink;
+	private final int maxInFlight;
+	private final Map<Integer, RequestChannel> inFlight = new ConcurrentHashMap<Integer, RequestChannel>();
+	private volatile String userID = null;
+	// null depois de a autenticacao terminar
+	private NetworkServer.Authentication authentication;
+
+	// tarefas por executar, pela ordem de chegada (protegidas por this)
+	private final Queue<Task> pending = new ArrayDeque<Task>();
+	private int running = 0;
+	private boolean writing = false;
+
+	/**
+	 * @param maxInFlight O numero maximo de tarefas por terminar (em espera ou
+	 *                    em execucao) a partir do qual a conexao deixa de ser
+	 *                    lida.
+	 */
+	Pipeline(NetworkServer server, SessionRegistry.Ticket ticket, Executor workers, int maxInFlight,
+			FrameSink sink) {
+		this.server = server;
+		this.ticket = ticket;
+		this.workers = workers;
+		this.maxInFlight = maxInFlight;
+		this.sink = sink;
+		this.authentication = server.newAuthentication(new MessageSender() {
+			@Override
+			public void writeObject(Object obj) throws IOException {
+				sink.write(PipelinedStreamChannel.CONTROL_ID, obj);
+			}
+
+			@Override
+			public void close() {
+				sink.close();
+			}
+		}, ticket);
+	}
+
+	/**
+	 * @return true caso o numero de tarefas por terminar tenha atingido o
+	 *         limite, devendo o transporte deixar de ler a conexao.
+	 */
+	synchronized boolean isFull() {
+		return pending.size() + running >= maxInFlight;
+	}
+
+	/**
+	 * Espera que o numero de tarefas por terminar fique abaixo do limite. Usado
+	 * pelo transporte bloqueante, cuja thread le a conexao.
+	 */
+	synchronized void awaitCapacity() throws InterruptedException {
+		while (isFull()) {
+			wait();
+		}
+	}
+
+	/**
+	 * Trata uma trama recebida. Deve ser chamado pela thread que le a conexao,
+	 * pela ordem de chegada das tramas.
+	 *
+	 * @param id      O id de correlacao da trama.
+	 * @param message A mensagem recebida.
+	 */
+	void onFrame(int id, Object message) {
+		RequestChannel request = inFlight.get(id);
+		if (request != null) {
+			if (request.isFull()) {
+				// um cliente que envie tramas em excesso de um comando e desligado
+				System.err.println("Mensagens em excesso do comando " + id);
+				sink.close();
+				return;
+			}
+			// a assinatura de uma transacao e verificada enquanto o comando espera
+			// pela sua vez
+			String user = userID;
+			request.deliver(user == null ? message : server.startVerification(user, message));
+			return;
+		}
+
+		if (id == PipelinedStreamChannel.CONTROL_ID) {
+			// cada mensagem faz avancar a autenticacao sem esperar pela seguinte
+			submit(false, () -> authenticate(message));
+			return;
+		}
+
+		if (!(message instanceof String)) {
+			System.err.println("Trama inesperada do comando " + id);
+			return;
+		}
+
+		String command = (String) message;
+		RequestChannel newRequest = new RequestChannel(id);
+		inFlight.put(id, newRequest);
+		submit(isReadOnly(command), () -> execute(newRequest, command));
+	}
+
+	private synchronized void submit(boolean readOnly, Runnable action) {
+		pending.add(new Task(readOnly, action));
+		dispatch();
+	}
+
+	/**
+	 * Inicia as tarefas que podem ser executadas: os comandos so de leitura no
+	 * inicio da fila, caso nao esteja a decorrer nenhum outro comando, ou o
+	 * comando seguinte, caso nao esteja a decorrer nenhum comando.
+	 */
+	private synchronized void dispatch() {
+		Task next = null;
+		while ((next = pending.peek()) != null && !writing) {
+			if (!next.readOnly) {
+				if (running > 0) {
+					return;
+				}
+				writing = true;
+			}
+			pending.poll();
+			running++;
+			Task task = next;
+			workers.execute(() -> {
+				try {
+					task.action.run();
+				} finally {
+					finished(task);
+				}
+			});
+		}
+	}
+
+	private void finished(Task task) {
+		boolean resumed = false;
+		synchronized (this) {
+			boolean wasFull = isFull();
+			running--;
+			if (!task.readOnly) {
+				writing = false;
+			}
+			dispatch();
+			if (wasFull && !isFull()) {
+				resumed = true;
+				notifyAll();
+			}
+		}
+		if (resumed) {
+			sink.resume();
+		}
+	}
+
+	/**
+	 * Termina os comandos em curso, que ficam sem as mensagens em falta.
+	 */
+	void close() {
+		for (RequestChannel request : inFlight.values()) {
+			request.end();
+		}
+	}
+
+	/**
+	 * Trata uma mensagem da autenticacao. As tarefas da autenticacao alteram o
+	 * estado, pelo que sao executadas uma de cada vez e pela ordem de chegada.
+	 */
+	private void authenticate(Object message) {
+		if (authentication == null) {
+			System.err.println("Trama inesperada do comando " + PipelinedStreamChannel.CONTROL_ID);
+			return;
+		}
+		try {
+			if (!authentication.onMessage(message)) {
+				return;
+			}
+			userID = authentication.getUserID();
+		} catch (IOException | ClassCastException e) {
+			System.err.println(e.getMessage());
+		}
+		authentication = null;
+		if (userID == null) {
+			sink.close();
+		}
+	}
+
+	private void execute(RequestChannel request, String command) {
+		try {
+			Object response = Boolean.FALSE;
+			if (userID != null) {
+				response = server.process(userID, command, request);
+			}
+			inFlight.remove(request.id);
+			sink.write(request.id, response);
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			inFlight.remove(request.id);
+			System.err.println(e.getMessage());
+		}
+	}
+
+	private static boolean isReadOnly(String command) {
+		return CommandRegistry.getDefault().isReadOnly(command);
+	}
+
+	private static class Task {
+
+		private final boolean readOnly;
+		private final Runnable action;
+
+		private Task(boolean readOnly, Runnable action) {
+			this.readOnly = readOnly;
+			this.action = action;
+		}
+	}
+
+	/**
+	 * Canal de mensagens de um comando em curso: recebe as mensagens com o seu
+	 * id de correlacao e envia as suas mensagens intermedias com o mesmo id.
+	 */
+	private class RequestChannel implements MessageChannel {
+
+		private final int id;
+		// com um lugar extra, reservado para o EOF
+		private final BlockingQueue<Object> messages = new ArrayBlockingQueue<Object>(MAX_QUEUED_MESSAGES + 1);
+
+		private RequestChannel(int id) {
+			this.id = id;
+		}
+
+		/**
+		 * @return true caso o comando ja tenha MAX_QUEUED_MESSAGES mensagens por
+		 *         ler.
+		 */
+		private boolean isFull() {
+			return messages.remainingCapacity() <= 1;
+		}
+
+		/**
+		 * Acrescenta uma mensagem a um comando que nao esteja cheio. So a thread
+		 * que le a conexao acrescenta mensagens, pelo que a fila nao enche entre
+		 * isFull e deliver.
+		 */
+		private void deliver(Object message) {
+			messages.add(message == null ? NULL : message);
+		}
+
+		private void end() {
+			messages.offer(EOF);
+		}
+
+		@Override
+		public Object readObject() throws IOException {
+			Object next = null;
+			try {
+				next = messages.poll(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new EOFException();
+			}
+			if (next == null) {
+				throw new SocketTimeoutException("Tempo de espera esgotado.");
+			}
+			if (next == EOF) {
+				throw new EOFException();
+			}
+			return next == NULL ? null : next;
+		}
+
+		@Override
+		public void writeObject(Object obj) throws IOException {
+			sink.write(id, obj);
+		}
+
+		@Override
+		public void close() {
+			sink.close();
+		}
+	}
+
+}
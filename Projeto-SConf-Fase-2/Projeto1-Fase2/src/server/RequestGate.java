@@ -0,0 +1,66 @@
+package server;
+
+/**
+ * Classe responsavel por contabilizar os pedidos em execucao no servidor, de
+ * forma a que o encerramento possa deixar de aceitar novos pedidos e esperar
+ * que os pedidos em curso terminem.
+ *
+ * @author grupo 36.
+ *
+ */
+public class RequestGate {
+
+	private int active = 0;
+	private boolean closed = false;
+
+	/**
+	 * Regista o inicio de um pedido.
+	 *
+	 * @return false caso o servidor esteja a encerrar e o pedido nao deva ser
+	 *         executado.
+	 */
+	public synchronized boolean enter() {
+		if (closed) {
+			return false;
+		}
+		active++;
+		return true;
+	}
+
+	/**
+	 * Regista o fim de um pedido iniciado com enter().
+	 */
+	public synchronized void exit() {
+		active--;
+		if (active == 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Deixa de aceitar novos pedidos e espera que os pedidos em curso terminem.
+	 *
+	 * @param timeoutMillis O tempo maximo de espera.
+	 * @return O numero de pedidos que ainda estavam em curso no fim da espera.
+	 */
+	public synchronized int close(long timeoutMillis) {
+		closed = true;
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long remaining = timeoutMillis;
+		while (active > 0 && remaining > 0) {
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return active;
+	}
+
+	public synchronized int getActiveCount() {
+		return active;
+	}
+
+}
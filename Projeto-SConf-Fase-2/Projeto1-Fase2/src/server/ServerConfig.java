@@ -0,0 +1,266 @@
+package server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import domain.Block;
+
+/**
+ * Classe responsavel pela configuracao do servidor. Os valores sao lidos das
+ * propriedades de sistema (-Dtrokos.*) no arranque do TrokosServer, usando
+ * valores por omissao quando nao definidos.
+ *
+ * @author grupo 36.
+ *
+ */
+public class ServerConfig {
+
+	/**
+	 * Modo de execucao das conexoes aceites pelo servidor.
+	 */
+	public enum ConnectionMode {
+		/** Uma nova thread por cada conexao (comportamento original). */
+		THREAD,
+		/** Conjunto limitado de threads com fila de admissao. */
+		POOL
+	}
+
+	/**
+	 * Transporte usado pelo servidor.
+	 */
+	public enum Transport {
+		/** Sockets bloqueantes, com uma thread por conexao ativa. */
+		BLOCKING,
+		/** Seletores NIO e SSLEngine, com threads de eventos partilhadas. */
+		NIO
+	}
+
+	private Transport transport = Transport.BLOCKING;
+	private ConnectionMode connectionMode = ConnectionMode.THREAD;
+	private int poolWorkers = Runtime.getRuntime().availableProcessors() * 8;
+	private int admissionQueue = 256;
+	private int acceptBacklog = 50;
+	private int nioSelectors = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private int nioWorkers = Runtime.getRuntime().availableProcessors() * 4;
+	private int pipelineWorkers = Runtime.getRuntime().availableProcessors() * 4;
+	private int pipelineMaxInFlight = 64;
+	private int tlsSessionCache = 20480;
+	private int tlsSessionTimeout = 86400;
+	private int idleTimeout = 300;
+	private int maxSessions = 0;
+	private int maxSessionsPerUser = 0;
+	private int shutdownTimeout = 10;
+	private int metricsDumpInterval = 0;
+	private int idempotencyCapacity = 100000;
+	private int idempotencyTtl = 3600;
+	private int cryptoWorkers = Runtime.getRuntime().availableProcessors();
+	private int blockCapacity = Block.DEFAULT_CAPACITY;
+	private int blockMaxAge = 0;
+	private Set<String> adminUsers = Collections.<String>emptySet();
+
+	/**
+	 * Cria uma configuracao a partir das propriedades de sistema.
+	 *
+	 * @return A configuracao do servidor.
+	 * @throws IllegalArgumentException caso alguma propriedade seja invalida.
+	 */
+	public static ServerConfig fromSystemProperties() {
+		ServerConfig config = new ServerConfig();
+		String transport = System.getProperty("trokos.transport");
+		if (transport != null) {
+			config.transport = Transport.valueOf(transport.trim().toUpperCase());
+		}
+		String mode = System.getProperty("trokos.connection.mode");
+		if (mode != null) {
+			config.connectionMode = ConnectionMode.valueOf(mode.trim().toUpperCase());
+		}
+		config.poolWorkers = positive("trokos.pool.workers", config.poolWorkers);
+		config.admissionQueue = positive("trokos.pool.queue", config.admissionQueue);
+		config.acceptBacklog = positive("trokos.accept.backlog", config.acceptBacklog);
+		config.nioSelectors = positive("trokos.nio.selectors", config.nioSelectors);
+		config.nioWorkers = positive("trokos.nio.workers", config.nioWorkers);
+		config.pipelineWorkers = positive("trokos.pipeline.workers", config.pipelineWorkers);
+		// um comando assinado so e executado depois de a trama da sua transacao,
+		// que o cliente envia logo a seguir, ser lida
+		config.pipelineMaxInFlight = positive("trokos.pipeline.max.inflight", config.pipelineMaxInFlight);
+		if (config.pipelineMaxInFlight < 2) {
+			throw new IllegalArgumentException("A propriedade trokos.pipeline.max.inflight deve ser pelo menos 2.");
+		}
+		config.tlsSessionCache = positive("trokos.tls.session.cache", config.tlsSessionCache);
+		config.tlsSessionTimeout = positive("trokos.tls.session.timeout", config.tlsSessionTimeout);
+		config.idleTimeout = nonNegative("trokos.idle.timeout", config.idleTimeout);
+		config.maxSessions = nonNegative("trokos.max.sessions", config.maxSessions);
+		config.maxSessionsPerUser = nonNegative("trokos.max.sessions.per.user", config.maxSessionsPerUser);
+		config.shutdownTimeout = nonNegative("trokos.shutdown.timeout", config.shutdownTimeout);
+		config.metricsDumpInterval = nonNegative("trokos.metrics.dump.interval", config.metricsDumpInterval);
+		config.idempotencyCapacity = positive("trokos.idempotency.capacity", config.idempotencyCapacity);
+		config.idempotencyTtl = positive("trokos.idempotency.ttl", config.idempotencyTtl);
+		config.cryptoWorkers = positive("trokos.crypto.workers", config.cryptoWorkers);
+		config.blockCapacity = positive("trokos.block.capacity", config.blockCapacity);
+		config.blockMaxAge = nonNegative("trokos.block.max.age", config.blockMaxAge);
+		String admins = System.getProperty("trokos.admin.users");
+		if (admins != null && !admins.trim().isEmpty()) {
+			config.adminUsers = new HashSet<String>(Arrays.asList(admins.trim().split("\\s*,\\s*")));
+		}
+		return config;
+	}
+
+	private static int positive(String property, int defaultValue) {
+		int value = Integer.getInteger(property, defaultValue);
+		if (value <= 0) {
+			throw new IllegalArgumentException("A propriedade " + property + " deve ser positiva.");
+		}
+		return value;
+	}
+
+	private static int nonNegative(String property, int defaultValue) {
+		int value = Integer.getInteger(property, defaultValue);
+		if (value < 0) {
+			throw new IllegalArgumentException("A propriedade " + property + " nao pode ser negativa.");
+		}
+		return value;
+	}
+
+	public Transport getTransport() {
+		return transport;
+	}
+
+	public ConnectionMode getConnectionMode() {
+		return connectionMode;
+	}
+
+	public int getPoolWorkers() {
+		return poolWorkers;
+	}
+
+	public int getAdmissionQueue() {
+		return admissionQueue;
+	}
+
+	public int getAcceptBacklog() {
+		return acceptBacklog;
+	}
+
+	public int getNioSelectors() {
+		return nioSelectors;
+	}
+
+	public int getNioWorkers() {
+		return nioWorkers;
+	}
+
+	public int getPipelineWorkers() {
+		return pipelineWorkers;
+	}
+
+	/**
+	 * @return O numero maximo de comandos em curso por conexao no modo
+	 *         pipelined; ao atingi-lo, o servidor deixa de ler a conexao.
+	 */
+	public int getPipelineMaxInFlight() {
+		return pipelineMaxInFlight;
+	}
+
+	/**
+	 * @return O numero maximo de sessoes TLS guardadas para retoma.
+	 */
+	public int getTlsSessionCache() {
+		return tlsSessionCache;
+	}
+
+	/**
+	 * @return O tempo de vida, em segundos, das sessoes TLS guardadas.
+	 */
+	public int getTlsSessionTimeout() {
+		return tlsSessionTimeout;
+	}
+
+	/**
+	 * @return O tempo, em milissegundos, ao fim do qual uma conexao sem
+	 *         atividade e encerrada, ou 0 caso nao haja limite.
+	 */
+	public int getIdleTimeoutMillis() {
+		return idleTimeout * 1000;
+	}
+
+	/**
+	 * @return O numero maximo de sessoes abertas, ou 0 caso nao haja limite.
+	 */
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	/**
+	 * @return O numero maximo de sessoes simultaneas de cada usuario, ou 0 caso
+	 *         nao haja limite.
+	 */
+	public int getMaxSessionsPerUser() {
+		return maxSessionsPerUser;
+	}
+
+	/**
+	 * @return O tempo maximo, em milissegundos, que o encerramento espera pelos
+	 *         pedidos em curso.
+	 */
+	public int getShutdownTimeoutMillis() {
+		return shutdownTimeout * 1000;
+	}
+
+	/**
+	 * @return O intervalo, em segundos, entre os relatorios periodicos das
+	 *         metricas, ou 0 caso estejam desativados.
+	 */
+	public int getMetricsDumpInterval() {
+		return metricsDumpInterval;
+	}
+
+	/**
+	 * @return O numero maximo de resultados guardados para os comandos enviados
+	 *         com uma chave de idempotencia.
+	 */
+	public int getIdempotencyCapacity() {
+		return idempotencyCapacity;
+	}
+
+	/**
+	 * @return O tempo, em milissegundos, durante o qual o resultado de um
+	 *         comando enviado com uma chave de idempotencia e guardado.
+	 */
+	public long getIdempotencyTtlMillis() {
+		return idempotencyTtl * 1000L;
+	}
+
+	/**
+	 * @return O numero de threads onde sao verificadas as assinaturas das
+	 *         transacoes.
+	 */
+	public int getCryptoWorkers() {
+		return cryptoWorkers;
+	}
+
+	/**
+	 * @return O numero de transacoes a partir do qual um bloco e selado.
+	 */
+	public int getBlockCapacity() {
+		return blockCapacity;
+	}
+
+	/**
+	 * @return O tempo maximo, em milissegundos, entre a primeira transacao de um
+	 *         bloco e o seu selo, ou 0 caso os blocos so sejam selados quando
+	 *         cheios.
+	 */
+	public long getBlockMaxAgeMillis() {
+		return blockMaxAge * 1000L;
+	}
+
+	/**
+	 * @return Os usuarios que podem consultar as metricas com o comando stats.
+	 */
+	public Set<String> getAdminUsers() {
+		return adminUsers;
+	}
+
+}
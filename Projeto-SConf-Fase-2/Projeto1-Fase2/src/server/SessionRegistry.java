@@ -0,0 +1,110 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classe responsavel pelo controlo de admissao das sessoes do servidor: limita
+ * o numero total de sessoes abertas e o numero de sessoes simultaneas de cada
+ * usuario. Um limite igual a 0 significa que nao ha limite.
+ *
+ * @author grupo 36.
+ *
+ */
+public class SessionRegistry {
+
+	private final int maxSessions;
+	private final int maxSessionsPerUser;
+	private final AtomicInteger sessions = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+	private final Map<String, Integer> userSessions = new ConcurrentHashMap<String, Integer>();
+
+	public SessionRegistry(ServerConfig config) {
+		this.maxSessions = config.getMaxSessions();
+		this.maxSessionsPerUser = config.getMaxSessionsPerUser();
+	}
+
+	/**
+	 * Admite uma nova sessao, caso o limite de sessoes nao tenha sido atingido.
+	 *
+	 * @return O registo da sessao, que deve ser fechado quando a conexao
+	 *         terminar, ou null caso a sessao seja rejeitada.
+	 */
+	public Ticket open() {
+		while (true) {
+			int current = sessions.get();
+			if (maxSessions > 0 && current >= maxSessions) {
+				rejected.incrementAndGet();
+				return null;
+			}
+			if (sessions.compareAndSet(current, current + 1)) {
+				return new Ticket();
+			}
+		}
+	}
+
+	public int getSessionCount() {
+		return sessions.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Registo de uma sessao admitida.
+	 */
+	public class Ticket {
+
+		private String userID = null;
+		private boolean closed = false;
+
+		private Ticket() {
+		}
+
+		/**
+		 * Associa o usuario autenticado a sessao, caso este nao tenha atingido o
+		 * limite de sessoes simultaneas.
+		 *
+		 * @param userID O id do usuario autenticado.
+		 * @return true caso o usuario tenha sido associado, false caso contrario.
+		 */
+		public synchronized boolean bindUser(String userID) {
+			if (closed || this.userID != null) {
+				return false;
+			}
+			boolean[] admitted = { true };
+			userSessions.compute(userID, (id, count) -> {
+				int current = count == null ? 0 : count;
+				if (maxSessionsPerUser > 0 && current >= maxSessionsPerUser) {
+					admitted[0] = false;
+					return count;
+				}
+				return current + 1;
+			});
+			if (admitted[0]) {
+				this.userID = userID;
+			} else {
+				rejected.incrementAndGet();
+			}
+			return admitted[0];
+		}
+
+		/**
+		 * Liberta a sessao. Pode ser chamado mais do que uma vez.
+		 */
+		public synchronized void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			sessions.decrementAndGet();
+			if (userID != null) {
+				userSessions.computeIfPresent(userID, (id, count) -> count <= 1 ? null : count - 1);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package server;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import domain.PublicKeyCache;
+import protocol.SignedTransaction;
+
+/**
+ * Conjunto de threads dedicado a verificacao das assinaturas das transacoes.
+ * A verificacao RSA e feita fora das threads que leem as conexoes e executam
+ * os comandos, usando todos os processadores sob carga. No modo pipelined, a
+ * verificacao de uma transacao comeca assim que e recebida, enquanto os
+ * comandos anteriores ainda estao a ser executados.
+ *
+ * @author grupo 36.
+ *
+ */
+public class SignatureVerifier {
+
+	private final ExecutorService workers;
+
+	/**
+	 * @param workers O numero de threads de verificacao.
+	 */
+	public SignatureVerifier(int workers) {
+		AtomicInteger count = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(workers, task -> {
+			Thread thread = new Thread(task, "crypto-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Inicia a verificacao da assinatura de uma transacao de um usuario, com a
+	 * sua chave publica registada.
+	 *
+	 * @param cipherPass  A password da cifra dos ficheiros do servidor.
+	 * @param userID      O usuario que assinou a transacao.
+	 * @param transaction A transacao assinada.
+	 * @return O resultado da verificacao.
+	 */
+	public CompletableFuture<Boolean> verify(String cipherPass, String userID, SignedTransaction transaction) {
+		return CompletableFuture.supplyAsync(() -> {
+			PublicKey publicKey = PublicKeyCache.getInstance().get(cipherPass, userID);
+			if (publicKey == null) {
+				return false;
+			}
+			try {
+				return transaction.verify(publicKey, Signature.getInstance("MD5withRSA"));
+			} catch (GeneralSecurityException | IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}, workers);
+	}
+
+	/**
+	 * Transacao assinada recebida cuja verificacao ja foi iniciada.
+	 */
+	static final class Pending {
+
+		private final SignedTransaction transaction;
+		private final CompletableFuture<Boolean> result;
+
+		Pending(SignedTransaction transaction, CompletableFuture<Boolean> result) {
+			this.transaction = transaction;
+			this.result = result;
+		}
+
+		SignedTransaction getTransaction() {
+			return transaction;
+		}
+
+		CompletableFuture<Boolean> getResult() {
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package server;
+
+/**
+ * Comando que devolve o relatorio das metricas do servidor. So pode ser usado
+ * pelos administradores.
+ *
+ * @author grupo 36.
+ *
+ */
+final class StatsCommand extends Command<Void> {
+
+	StatsCommand() {
+		super("stats", null, 0);
+	}
+
+	@Override
+	boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	Void parse(String[] message) {
+		return null;
+	}
+
+	@Override
+	Object execute(CommandContext context, Void request) {
+		Skeleton<?> skeleton = context.getSkeleton();
+		if (!skeleton.isAdmin(context.getUserID())) {
+			return "Comando reservado aos administradores";
+		}
+		return skeleton.getMetrics().report();
+	}
+
+}
@@ -22,11 +22,20 @@ public class TrokosServer {
 	}
 
 	/**
-	 * Metodo que cria uma variavel da classe NetworkServer e chama a funcao de
-	 * inicializacao com a porta definida.
+	 * Metodo que cria uma variavel da classe NetworkServer, com a configuracao
+	 * lida das propriedades de sistema, e chama a funcao de inicializacao com a
+	 * porta definida.
 	 */
 	private static void setupNetworkServer() {
-		NetworkServer network = new NetworkServer();
+		ServerConfig config = null;
+		try {
+			config = ServerConfig.fromSystemProperties();
+		} catch (IllegalArgumentException e) {
+			System.err.println("Configuracao invalida: " + e.getMessage());
+			System.exit(-1);
+		}
+
+		NetworkServer network = new NetworkServer(config);
 
 		network.init(port, cipherPass, keyStore, keyStorePass);
 	}
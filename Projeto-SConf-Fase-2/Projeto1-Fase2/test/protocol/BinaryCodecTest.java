@@ -0,0 +1,72 @@
+package protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Testes da codificacao binaria das tramas: as listas encaixadas ate
+ * MAX_LIST_DEPTH sao descodificadas e uma trama com listas encaixadas em
+ * demasia e rejeitada com StreamCorruptedException, e nao com
+ * StackOverflowError.
+ *
+ * @author grupo 36.
+ *
+ */
+public class BinaryCodecTest {
+
+	// codigo do tipo LIST, seguido do tamanho 1
+	private static final byte[] NESTED_LIST = { 9, 1 };
+
+	public static void main(String[] args) throws Exception {
+		decodesBatch();
+		rejectsDeeplyNestedLists();
+		rejectsListsOneLevelTooDeep();
+		System.out.println("BinaryCodecTest: ok");
+	}
+
+	private static void decodesBatch() throws Exception {
+		BinaryCodec codec = new BinaryCodec();
+		List<Object> batch = Arrays.<Object>asList(null, "balance", Collections.<Object>singletonList("viewrequests"));
+		check(batch.equals(codec.decode(codec.encode(batch))), "batch descodificado de forma diferente");
+	}
+
+	private static void rejectsDeeplyNestedLists() throws Exception {
+		// cerca de 400 KB de listas encaixadas
+		rejects(nestedLists(200_000));
+	}
+
+	private static void rejectsListsOneLevelTooDeep() throws Exception {
+		rejects(nestedLists(BinaryCodec.MAX_LIST_DEPTH + 1));
+	}
+
+	private static void rejects(byte[] frame) throws Exception {
+		try {
+			new BinaryCodec().decode(frame);
+		} catch (StreamCorruptedException e) {
+			return;
+		}
+		throw new AssertionError("trama com listas encaixadas em demasia aceite");
+	}
+
+	/**
+	 * @return Uma trama com depth listas encaixadas, a ultima com um null.
+	 */
+	private static byte[] nestedLists(int depth) {
+		ByteArrayOutputStream frame = new ByteArrayOutputStream(depth * NESTED_LIST.length + 1);
+		for (int i = 0; i < depth; i++) {
+			frame.write(NESTED_LIST, 0, NESTED_LIST.length);
+		}
+		frame.write(0);
+		return frame.toByteArray();
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+package server;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignedObject;
+import java.security.cert.Certificate;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+
+import domain.BankAccount;
+import domain.BankAccountCatalog;
+import domain.BlockChain;
+import domain.GroupCatalog;
+import domain.PublicKeyCache;
+import protocol.MessageChannel;
+
+/**
+ * Testes das chaves de idempotencia do Skeleton: um comando assinado so e
+ * aceite com a mesma chave que a da transacao assinada, que e a chave
+ * recuperada da blockchain quando o servidor reinicia.
+ *
+ * Tal como o servidor, usa ficheiros na diretoria atual, pelo que deve ser
+ * executado numa diretoria vazia com uma copia de Projeto1-Fase2/security.
+ *
+ * @author grupo 36.
+ *
+ */
+public class SkeletonTest {
+
+	private static final String SECURITY_FOLDER = "Projeto1-Fase2/security/";
+	private static final String CIPHER_PASS = "cifra";
+	private static final String USER = "user2";
+	private static final String OTHER_USER = "user1";
+
+	private final BankAccountCatalog bankCatalog = new BankAccountCatalog();
+	private final GroupCatalog groupCatalog = new GroupCatalog();
+	private final Skeleton<Object> skeleton = new Skeleton<Object>();
+	private final BlockChain blockChain = new BlockChain(1, new byte[32], 0);
+	private PrivateKey privateKey;
+	private Certificate certificate;
+
+	public static void main(String[] args) throws Exception {
+		if (!new File(SECURITY_FOLDER).isDirectory()) {
+			System.err.println("Execute os testes numa diretoria com uma copia de " + SECURITY_FOLDER);
+			System.exit(1);
+		}
+		SkeletonTest test = new SkeletonTest();
+		try {
+			test.setUp();
+			test.rejectsKeyDifferentFromTransaction();
+			test.rejectsKeyMissingFromTransaction();
+			test.rejectsKeyOnlyInTransaction();
+			test.acceptsMatchingKeyOnce();
+		} finally {
+			test.blockChain.close();
+			new File("block_1.blk").delete();
+		}
+		System.out.println("SkeletonTest: ok");
+	}
+
+	private void setUp() throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("JCEKS");
+		try (FileInputStream in = new FileInputStream(SECURITY_FOLDER + USER + ".keystore")) {
+			keyStore.load(in, "password2".toCharArray());
+		}
+		privateKey = (PrivateKey) keyStore.getKey(USER, "password2".toCharArray());
+		certificate = keyStore.getCertificate(USER);
+		PublicKeyCache.getInstance().put(USER, certificate.getPublicKey());
+		bankCatalog.add(USER, new BankAccount());
+		bankCatalog.add(OTHER_USER, new BankAccount());
+	}
+
+	private void rejectsKeyDifferentFromTransaction() throws Exception {
+		check(Boolean.FALSE.equals(makePayment("@k1 makepayment user1 10", "makepayment user1 10 user2 @k2")),
+				"chave diferente da transacao aceite");
+		checkBalance(100.0);
+	}
+
+	private void rejectsKeyMissingFromTransaction() throws Exception {
+		check(Boolean.FALSE.equals(makePayment("@k1 makepayment user1 10", "makepayment user1 10 user2")),
+				"chave em falta na transacao aceite");
+		checkBalance(100.0);
+	}
+
+	private void rejectsKeyOnlyInTransaction() throws Exception {
+		check(Boolean.FALSE.equals(makePayment("makepayment user1 10", "makepayment user1 10 user2 @k1")),
+				"chave so na transacao aceite");
+		checkBalance(100.0);
+	}
+
+	private void acceptsMatchingKeyOnce() throws Exception {
+		for (int i = 0; i < 2; i++) {
+			check(Boolean.TRUE.equals(makePayment("@k3 makepayment user1 10", "makepayment user1 10 user2 @k3")),
+					"chave igual a da transacao rejeitada");
+			checkBalance(90.0);
+		}
+	}
+
+	private Object makePayment(String command, String transaction) throws Exception {
+		SignedObject signed = new SignedObject(transaction, privateKey, Signature.getInstance("MD5withRSA"));
+		return skeleton.invoke(USER, bankCatalog, groupCatalog, command, new ReplayChannel(signed, certificate),
+				blockChain, CIPHER_PASS);
+	}
+
+	private void checkBalance(double expected) throws Exception {
+		double balance = bankCatalog.getBankAccount(USER).balance();
+		check(balance == expected, "saldo " + balance + " em vez de " + expected);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	/**
+	 * Canal que devolve as mensagens indicadas e descarta as enviadas.
+	 */
+	private static final class ReplayChannel implements MessageChannel {
+
+		private final Deque<Object> messages = new ArrayDeque<Object>();
+
+		ReplayChannel(Object... messages) {
+			Collections.addAll(this.messages, messages);
+		}
+
+		@Override
+		public Object readObject() throws IOException {
+			if (messages.isEmpty()) {
+				throw new EOFException("Nao ha mais mensagens no canal.");
+			}
+			return messages.poll();
+		}
+
+		@Override
+		public void writeObject(Object obj) {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}